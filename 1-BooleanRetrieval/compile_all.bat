@@ -1,2 +1,2 @@
 if not exist classes mkdir classes
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/DictionaryHash.java ir/DocumentStore.java ir/DocumentReader.java ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/ImpactIndex.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/MappedFile.java ir/Murmur3Hash.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsCodec.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/ScoreAccumulator.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Sha256Hash.java ir/TokenCache.java ir/Tokenizer.java ir/TopDocs.java ir/TokenTest.java 
@@ -0,0 +1,35 @@
+package ir;
+
+/**
+ *  A hash function for the tokens in the dictionary of a
+ *  PersistentHashedIndex. Every dictionary file records in its header
+ *  which function it was written with, so that it is always read back
+ *  with the same one, even if the default changes.
+ */
+public interface DictionaryHash {
+
+    /** SHA-256, truncated to its first 64 bits. */
+    public static final int SHA256 = 0;
+
+    /** MurmurHash3 (x64, 128 bits), truncated to its first 64 bits. */
+    public static final int MURMUR3 = 1;
+
+    /** Returns a 64-bit hash of the token. */
+    public long hash( String token );
+
+
+    /**
+     *  Returns the hash function with the given type, as stored in a
+     *  dictionary header.
+     */
+    public static DictionaryHash forType( int type ) {
+        switch ( type ) {
+        case SHA256:
+            return new Sha256Hash();
+        case MURMUR3:
+            return new Murmur3Hash();
+        default:
+            throw new IllegalArgumentException( "Unknown dictionary hash type: " + type );
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  Reads UTF-8 text files into memory, a whole file at a time.
+ *
+ *  A file is read through its FileChannel with one large read into a
+ *  direct buffer, and decoded to chars in one call, instead of going
+ *  through an InputStreamReader a few kilobytes at a time. The buffers
+ *  are kept and reused for the next file, so a reader must only be used
+ *  by one thread at a time.
+ */
+public class DocumentReader {
+
+    /** The size of the buffers to begin with; they grow to fit the largest file. */
+    static final int INITIAL_CAPACITY = 1 << 16;
+
+    private ByteBuffer bytes = ByteBuffer.allocateDirect( INITIAL_CAPACITY );
+
+    private CharBuffer chars = CharBuffer.allocate( INITIAL_CAPACITY );
+
+    /** Malformed input becomes U+FFFD, as with an InputStreamReader. */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput( CodingErrorAction.REPLACE )
+        .onUnmappableCharacter( CodingErrorAction.REPLACE );
+
+
+    /**
+     *  Reads and decodes a whole file. The returned buffer holds the text
+     *  from position 0 to its limit, and is backed by an array. It is
+     *  overwritten by the next call.
+     */
+    public CharBuffer read( Path path ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ )) {
+            // one byte more than the file, so that the read reaching the
+            // end of it doesn't have to grow the buffer
+            long size = channel.size() + 1;
+            if ( size > Integer.MAX_VALUE ) {
+                throw new IOException( "File too large to index: " + path );
+            }
+            if ( size > bytes.capacity() ) {
+                bytes = ByteBuffer.allocateDirect( (int) size );
+            }
+            bytes.clear();
+            while ( channel.read( bytes ) >= 0 ) {
+                if ( !bytes.hasRemaining() ) {
+                    // the file grew while it was read
+                    ByteBuffer larger = ByteBuffer.allocateDirect( (int) Math.min( Integer.MAX_VALUE, 2L * bytes.capacity() ));
+                    bytes.flip();
+                    larger.put( bytes );
+                    bytes = larger;
+                }
+            }
+        }
+        bytes.flip();
+
+        // UTF-8 never decodes to more chars than there are bytes
+        if ( bytes.remaining() > chars.capacity() ) {
+            chars = CharBuffer.allocate( bytes.remaining() );
+        }
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode( bytes, chars, true );
+        if ( !result.isUnderflow() ) {
+            result.throwException();
+        }
+        decoder.flush( chars );
+        chars.flip();
+        return chars;
+    }
+}
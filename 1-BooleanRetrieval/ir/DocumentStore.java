@@ -0,0 +1,271 @@
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ *  The names and lengths of the indexed documents, in arrays indexed by
+ *  docID.
+ *
+ *  Looking up a length is an array access, rather than a hash lookup
+ *  and an unboxing, which matters since it is done for every posting
+ *  scored. The names are kept as UTF-8 bytes in one shared array, and
+ *  only turned into Strings when asked for.
+ */
+public class DocumentStore {
+
+    /** Identifies a binary docInfo file ("DOCS"). */
+    public static final int MAGIC = 0x444F4353;
+
+    /** The version of the binary format written by write(). */
+    public static final int VERSION = 1;
+
+    /** Number of documents added. */
+    private int count = 0;
+
+    /** The length (number of words) of each document, or -1 for no document. */
+    private int[] lengths = new int[0];
+
+    /** The euclidean length of each document, or 0 if not known. */
+    private double[] euclideanLengths = new double[0];
+
+    /** Where each name starts in nameBytes, plus where the last one ends. */
+    private int[] nameStart = new int[1];
+
+    /** Where in nameStart the name of each document is. */
+    private int[] nameIndex = new int[0];
+
+    /** Number of names stored in nameBytes. */
+    private int nameCount = 0;
+
+    /** The names of all documents as UTF-8, one after the other. */
+    private byte[] nameBytes = new byte[256];
+
+
+    /** Number of documents. */
+    public synchronized int size() {
+        return count;
+    }
+
+
+    /** One more than the largest docID that can be in the store. */
+    public synchronized int capacity() {
+        return lengths.length;
+    }
+
+
+    /** True if there is a document with this docID. */
+    public synchronized boolean contains( int docID ) {
+        return docID >= 0 && docID < lengths.length && lengths[docID] >= 0;
+    }
+
+
+    /**
+     *  Adds a document. Adding a docID that is already there replaces its
+     *  length, and its name for later lookups.
+     */
+    public synchronized void add( int docID, String name, int length ) {
+        ensureCapacity( docID + 1 );
+        if ( lengths[docID] < 0 ) {
+            count++;
+        }
+        lengths[docID] = length;
+
+        byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+        if ( nameCount + 1 == nameStart.length ) {
+            nameStart = Arrays.copyOf( nameStart, 2 * nameStart.length );
+        }
+        int start = nameStart[nameCount];
+        if ( start + bytes.length > nameBytes.length ) {
+            nameBytes = Arrays.copyOf( nameBytes, Math.max( start + bytes.length, 2 * nameBytes.length ));
+        }
+        System.arraycopy( bytes, 0, nameBytes, start, bytes.length );
+        nameStart[nameCount+1] = start + bytes.length;
+        nameIndex[docID] = nameCount++;
+    }
+
+
+    /** The name (file path) of a document, or null if there is none. */
+    public synchronized String name( int docID ) {
+        if ( !contains( docID )) {
+            return null;
+        }
+        int i = nameIndex[docID];
+        return new String( nameBytes, nameStart[i], nameStart[i+1] - nameStart[i], StandardCharsets.UTF_8 );
+    }
+
+
+    /** The length of a document in words, or 0 if there is no such document. */
+    public int length( int docID ) {
+        int[] lengths = this.lengths;
+        return docID >= 0 && docID < lengths.length ? Math.max( lengths[docID], 0 ) : 0;
+    }
+
+
+    /** The euclidean length of a document, or 0 if it is not known. */
+    public double euclideanLength( int docID ) {
+        double[] euclideanLengths = this.euclideanLengths;
+        return docID >= 0 && docID < euclideanLengths.length ? euclideanLengths[docID] : 0;
+    }
+
+
+    /** Sets the euclidean length of a document. */
+    public synchronized void setEuclideanLength( int docID, double length ) {
+        ensureCapacity( docID + 1 );
+        euclideanLengths[docID] = length;
+    }
+
+
+    /**
+     *  Sets the euclidean length of every document, the length of its
+     *  vector of tf-idf weights, from the postings lists of all terms.
+     *
+     *  Each list adds the squared weights of its term to the documents in
+     *  it, so no per-document word counts need to be kept around. The
+     *  lists are shared out between the available processors.
+     */
+    public void computeEuclideanLengths( Collection<PostingsList> lists ) {
+        PostingsList[] all = lists.toArray( new PostingsList[0] );
+        int parts = Runtime.getRuntime().availableProcessors();
+        int N = size();
+        computeEuclideanLengths( parts, ( sums, part ) -> {
+            for ( int i = part; i < all.length; i += parts ) {
+                addSquaredWeights( sums, all[i], Math.log( N / all[i].size() ));
+            }
+        });
+    }
+
+
+    /**
+     *  Sets the euclidean length of every document, with the squared
+     *  weights summed up in <code>parts</code> parts at the same time.
+     *  Part p is called with its own array of sums, indexed by docID and
+     *  as long as capacity(), and adds the weights of its terms to it
+     *  (see addSquaredWeights).
+     */
+    public void computeEuclideanLengths( int parts, ObjIntConsumer<double[]> part ) {
+        int capacity = capacity();
+        double[] sums = IntStream.range( 0, parts ).parallel()
+            .mapToObj( p -> {
+                double[] partSums = new double[capacity];
+                part.accept( partSums, p );
+                return partSums;
+            })
+            .reduce( ( x, y ) -> {
+                for ( int docID = 0; docID < capacity; docID++ ) {
+                    x[docID] += y[docID];
+                }
+                return x;
+            })
+            .orElse( new double[capacity] );
+        for ( int docID = 0; docID < capacity; docID++ ) {
+            if ( contains( docID )) {
+                setEuclideanLength( docID, Math.sqrt( sums[docID] ));
+            }
+        }
+    }
+
+
+    /**
+     *  Adds the squared tf-idf weight of a term to each document in its
+     *  postings list. Documents past the end of sums are skipped.
+     */
+    public static void addSquaredWeights( double[] sums, PostingsList pl, double idf ) {
+        for ( int i = 0; i < pl.size(); i++ ) {
+            int docID = pl.docID(i);
+            if ( docID < sums.length ) {
+                double w = pl.offsetCount(i) * idf;
+                sums[docID] += w * w;
+            }
+        }
+    }
+
+
+    /** Makes room for docIDs up to capacity-1. */
+    private void ensureCapacity( int capacity ) {
+        if ( capacity > lengths.length ) {
+            int old = lengths.length;
+            capacity = Math.max( capacity, 2 * old );
+            lengths = Arrays.copyOf( lengths, capacity );
+            Arrays.fill( lengths, old, capacity, -1 );
+            euclideanLengths = Arrays.copyOf( euclideanLengths, capacity );
+            nameIndex = Arrays.copyOf( nameIndex, capacity );
+        }
+    }
+
+
+    /**
+     *  Writes the documents (docID, length and name) to a binary file.
+     */
+    public synchronized void write( File file ) throws IOException {
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file )))) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( count );
+            for ( int docID = 0; docID < lengths.length; docID++ ) {
+                if ( lengths[docID] < 0 ) {
+                    continue;
+                }
+                int i = nameIndex[docID];
+                out.writeInt( docID );
+                out.writeInt( lengths[docID] );
+                out.writeInt( nameStart[i+1] - nameStart[i] );
+                out.write( nameBytes, nameStart[i], nameStart[i+1] - nameStart[i] );
+            }
+        }
+    }
+
+
+    /**
+     *  Adds the documents in a file written by write(). A file in the old
+     *  text format ("docID;name;length" per line) is read as well.
+     */
+    public void read( File file ) throws IOException {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file )))) {
+            if ( file.length() < 4 || in.readInt() != MAGIC ) {
+                readText( file );
+                return;
+            }
+            int version = in.readInt();
+            if ( version != VERSION ) {
+                throw new IOException( "Unknown docInfo version " + version + " in " + file );
+            }
+            int n = in.readInt();
+            byte[] buf = new byte[256];
+            for ( int k = 0; k < n; k++ ) {
+                int docID = in.readInt();
+                int length = in.readInt();
+                int nameLength = in.readInt();
+                if ( nameLength > buf.length ) {
+                    buf = new byte[Math.max( nameLength, 2 * buf.length )];
+                }
+                in.readFully( buf, 0, nameLength );
+                add( docID, new String( buf, 0, nameLength, StandardCharsets.UTF_8 ), length );
+            }
+        }
+    }
+
+
+    private void readText( File file ) throws IOException {
+        try ( BufferedReader br = new BufferedReader( new FileReader( file ))) {
+            String line;
+            while ( (line = br.readLine()) != null ) {
+                String[] data = line.split( ";" );
+                add( Integer.parseInt( data[0] ), data[1], Integer.parseInt( data[2] ));
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ package ir;
 import java.util.ArrayList;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  *  This is the main class for the search engine.
@@ -43,8 +44,12 @@ public class Engine {
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
-    Object indexLock = new Object();
+    /**
+     *  Lock to prevent searching while the index is being built. Indexing
+     *  takes the write lock; searches only read the index, so they take
+     *  the read lock and can run at the same time.
+     */
+    ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
@@ -61,6 +66,12 @@ public class Engine {
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** Answer top-k tf-idf queries from impact-ordered lists. */
+    boolean use_impact_index = false;
+
+    /** The number of threads tokenizing files while indexing. */
+    int indexing_threads = 1;
+
 
     boolean euclidianExists;
 
@@ -78,7 +89,11 @@ public class Engine {
         index.readPageRank(rank_file);
 
         indexer = new Indexer( index, kgIndex, patterns_file );
+        indexer.threads = indexing_threads;
         searcher = new Searcher( index, kgIndex );
+        if ( use_impact_index ) {
+            searcher.impactIndex = new ImpactIndex( index );
+        }
         gui = new SearchGUI( this );
         gui.init();
         /* 
@@ -88,7 +103,8 @@ public class Engine {
          *   corrupt the index).
          */
         if (is_indexing) {
-            synchronized ( indexLock ) {
+            indexLock.writeLock().lock();
+            try {
                 gui.displayInfoText( "Indexing, please wait..." );
                 long startTime = System.currentTimeMillis();
 
@@ -114,15 +130,29 @@ public class Engine {
                     System.out.println("Number of words containing \"th\" and \"he\": " + 
                                         kgIndex.intersect(kgIndex.getPostings("th"), kgIndex.getPostings("he")).size() );
                 }
+            } finally {
+                indexLock.writeLock().unlock();
             }
         } else {
+            if ( index instanceof PersistentHashedIndex ) {
+                PersistentHashedIndex persistent = (PersistentHashedIndex) index;
+                String error = persistent.loadError();
+                if ( error != null ) {
+                    System.err.println( error );
+                    gui.displayInfoText( error );
+                    return;
+                }
+                // nothing is written to a loaded index, so it can be read through memory maps
+                persistent.mapIndexFiles();
+            }
             gui.displayInfoText( "Index is loaded from disk" );
             // check if euclidean index exists
             File euclideanIndex = new File(euclidean_File);
             if (euclideanIndex.exists()) {
                 index.readEuclideanIndex(euclidean_File);
             } else {
-                System.out.println("Euclidean index does not exist. Please re-index.");
+                // the lengths can be worked out from the postings on disk
+                index.createAndWriteEuclideanIndex(euclidean_File);
             }
         }
     }
@@ -159,6 +189,18 @@ public class Engine {
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-impact".equals( args[i] )) {
+                i++;
+                use_impact_index = true;
+            } else if ( "-threads".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    try {
+                        indexing_threads = Math.max( 1, Integer.parseInt( args[i++] ));
+                    } catch ( NumberFormatException e ) {
+                        System.err.println( "Not a number of threads: " + args[i-1] );
+                    }
+                }
             } else if ( "-e".equals( args[i] )) {
                 i++;
                 if(i < args.length){
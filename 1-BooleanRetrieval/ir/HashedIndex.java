@@ -14,7 +14,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Scanner;
 
 
@@ -49,6 +48,11 @@ public class HashedIndex implements Index {
         }
     }
 
+    public double getPageRank(int docID){
+        Double pr = pagerank.get(docID);
+        return pr == null ? 0 : pr;
+    }
+
     /**
      *  Inserts this token in the hashtable.
      */
@@ -57,29 +61,26 @@ public class HashedIndex implements Index {
         // YOUR CODE HERE
         //
         
+        PostingsList pl = index.get(token);
         // new token
-        if(index.get(token) == null){
-            PostingsList pl = new PostingsList();
-            PostingsEntry pe = new PostingsEntry(docID);
-            pe.offset.add(offset);
-            pe.pagerank = pagerank.get(docID);
-            pl.add(pe);
+        if(pl == null){
+            pl = new PostingsList();
             index.put(token, pl);
         }
-        // existing token
-        else{
-            PostingsList pl = index.get(token);
-            PostingsEntry pe = new PostingsEntry(docID);
-            if(pl.get(pl.size()-1).docID != docID){
-                pe.offset.add(offset);
-                pe.pagerank = pagerank.get(docID);
-                pl.add(pe);
-                index.put(token, pl);
-            }else{
-                pl.get(pl.size()-1).offset.add(offset);
-                pe.pagerank = pagerank.get(docID);
-            }
+        pl.addPosting(docID, offset);
+    }
+
+
+    /**
+     *  Inserts the postings of a token into the index.
+     */
+    public void insert( String token, PostingsList postings ) {
+        PostingsList pl = index.get(token);
+        if(pl == null){
+            pl = new PostingsList();
+            index.put(token, pl);
         }
+        pl.append(postings);
     }
 
 
@@ -96,9 +97,14 @@ public class HashedIndex implements Index {
 
 
     /**
-     *  No need for cleanup in a HashedIndex.
+     *  Indexing is done, so the postings lists can give back the
+     *  room they kept for growing, and get their block-max data.
      */
     public void cleanup() {
+        for(PostingsList pl : index.values()){
+            pl.trimToSize();
+            pl.computeBlockMaxima();
+        }
     }
 
     public void readEuclideanIndex(String filename){
@@ -109,7 +115,7 @@ public class HashedIndex implements Index {
 
             while(in.hasNextLine()){
                 String[] line = in.nextLine().split(" ");
-                euclidianLengths.put(Integer.parseInt(line[0]), Double.parseDouble(line[1]));
+                documents.setEuclideanLength(Integer.parseInt(line[0]), Double.parseDouble(line[1]));
             }
         } catch (FileNotFoundException e) {
             e.printStackTrace();
@@ -119,26 +125,7 @@ public class HashedIndex implements Index {
     public void createAndWriteEuclideanIndex(String filename){
         System.out.println("Creating euclidean index...");
         // for every document in the index, calculate the euclidean length
-
-        int N = docNames.size();
-
-        HashMap<String,Integer> tokenToDf = new HashMap<String,Integer>();
-
-        for (Map.Entry<String,PostingsList> entry : index.entrySet()) {
-            String token = entry.getKey();
-            tokenToDf.put(token, getPostings(token).size());
-        }
-
-        for(Integer docID : docWords.keySet()){
-            double euclidianLength = 0;
-            for(String token : docWords.get(docID).keySet()){
-                double tf = docWords.get(docID).get(token);
-                double idf = Math.log(N / tokenToDf.get(token));
-
-                euclidianLength += Math.pow(tf * idf, 2);
-            }
-            euclidianLengths.put(docID, Math.sqrt(euclidianLength));
-        }
+        documents.computeEuclideanLengths(index.values());
 
         writeEuclideanIndex(filename);
     }
@@ -146,9 +133,11 @@ public class HashedIndex implements Index {
     public void writeEuclideanIndex(String filename){
         try {
             FileOutputStream fout = new FileOutputStream( filename );
-            for ( Map.Entry<Integer,Double> entry : euclidianLengths.entrySet() ) {
-                Integer key = entry.getKey();
-                String euclidianIndexEntry = key + " " + entry.getValue() + "\n";
+            for ( int docID = 0; docID < documents.capacity(); docID++ ) {
+                if ( !documents.contains( docID )) {
+                    continue;
+                }
+                String euclidianIndexEntry = docID + " " + documents.euclideanLength( docID ) + "\n";
                 fout.write( euclidianIndexEntry.getBytes() );
             }
             fout.close();
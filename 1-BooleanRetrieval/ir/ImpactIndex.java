@@ -0,0 +1,136 @@
+package ir;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *  A secondary index holding each term's postings ordered by impact, the
+ *  term's tf-idf score in the document, quantized to a small integer.
+ *
+ *  With NUMBER_OF_WORDS or EUCLIDEAN normalization, the tf-idf score of a
+ *  term in a document doesn't depend on the query, so it can be worked
+ *  out ahead of time. Searcher uses these lists to score a ranked query
+ *  impact by impact, highest first, and stops once the lower impacts
+ *  left can no longer change which documents make the top k.
+ *
+ *  The lists are built from the main index the first time a term is
+ *  looked up, and kept in memory.
+ */
+public class ImpactIndex {
+
+    /** Quantization steps per doubling of the score (about 9% apart). */
+    static final int LEVELS_PER_OCTAVE = 8;
+
+    /** The score that quantizes to impact 1; smaller non-zero scores do too. */
+    static final double MIN_SCORE = Math.pow( 2, -24 );
+
+    /** The largest impact. */
+    static final int MAX_IMPACT = 255;
+
+    /** The index the postings come from. */
+    private Index index;
+
+    /** The impact lists built so far, per normalization type. */
+    private ConcurrentHashMap<String,ImpactList>[] lists;
+
+
+    /**
+     *  The postings of one term, in segments of equal impact. Segment s
+     *  has impact impacts[s] and the docIDs docIDs[segStart[s]] up to
+     *  docIDs[segStart[s+1]], in increasing order. The segments come in
+     *  decreasing order of impact.
+     */
+    public static class ImpactList {
+        public final int[] impacts;
+        public final int[] segStart;
+        public final int[] docIDs;
+
+        ImpactList( int[] impacts, int[] segStart, int[] docIDs ) {
+            this.impacts = impacts;
+            this.segStart = segStart;
+            this.docIDs = docIDs;
+        }
+
+        /** Number of segments. */
+        public int segments() {
+            return impacts.length;
+        }
+    }
+
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ImpactIndex( Index index ) {
+        this.index = index;
+        lists = new ConcurrentHashMap[NormalizationType.values().length];
+        for ( int i = 0; i < lists.length; i++ ) {
+            lists[i] = new ConcurrentHashMap<String,ImpactList>();
+        }
+    }
+
+
+    /**
+     *  Returns the impact list of a term, building it from the term's
+     *  postings list <code>pl</code> if it isn't there yet.
+     */
+    public ImpactList getImpacts( String term, PostingsList pl, NormalizationType normType ) {
+        return lists[normType.ordinal()].computeIfAbsent( term, t -> build( pl, normType ));
+    }
+
+
+    /**
+     *  Quantizes a score on a logarithmic scale, so that impacts of all
+     *  terms are comparable without knowing the largest score.
+     */
+    static int quantize( double score ) {
+        if ( score <= 0 ) {
+            return 0;
+        }
+        long q = Math.round( LEVELS_PER_OCTAVE * Math.log( score / MIN_SCORE ) / Math.log( 2 )) + 1;
+        return (int) Math.max( 1, Math.min( MAX_IMPACT, q ));
+    }
+
+
+    /**
+     *  An upper bound on the scores that quantize to <code>impact</code>
+     *  (except for the largest impact, which takes everything above).
+     */
+    static double dequantize( int impact ) {
+        if ( impact == 0 ) {
+            return 0;
+        }
+        return MIN_SCORE * Math.pow( 2, (impact - 0.5) / LEVELS_PER_OCTAVE );
+    }
+
+
+    private ImpactList build( PostingsList pl, NormalizationType normType ) {
+        int n = pl.size();
+        int N = index.documents.size();
+        double idf = Math.log( N / n );
+
+        // sort the postings by decreasing impact, then by docID
+        long[] keys = new long[n];
+        for ( int i = 0; i < n; i++ ) {
+            int docID = pl.docID(i);
+            double norm = normType == NormalizationType.EUCLIDEAN
+                ? index.documents.euclideanLength( docID ) : index.documents.length( docID );
+            int impact = quantize( pl.offsetCount(i) * idf / norm );
+            keys[i] = (long) (MAX_IMPACT - impact) << 32 | docID;
+        }
+        Arrays.sort( keys );
+
+        int[] docIDs = new int[n];
+        int[] impacts = new int[n];
+        int[] segStart = new int[n + 1];
+        int segments = 0;
+        for ( int i = 0; i < n; i++ ) {
+            int impact = MAX_IMPACT - (int) (keys[i] >>> 32);
+            docIDs[i] = (int) keys[i];
+            if ( segments == 0 || impacts[segments-1] != impact ) {
+                impacts[segments] = impact;
+                segStart[segments++] = i;
+            }
+        }
+        segStart[segments] = n;
+        return new ImpactList( Arrays.copyOf( impacts, segments ), Arrays.copyOf( segStart, segments + 1 ), docIDs );
+    }
+}
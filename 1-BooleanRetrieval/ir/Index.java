@@ -7,30 +7,31 @@
 
 package ir;
 
-import java.util.HashMap;
-import java.util.Iterator;
-
 /**
  *  Defines some common data structures and methods that all types of
  *  index should implement.
  */
 public interface Index {
 
-    /** Mapping from document identifiers to document names. */
-    public HashMap<Integer,String> docNames = new HashMap<Integer,String>();
-    
-    /** Mapping from document identifier to document length. */
-    public HashMap<Integer,Integer> docLengths = new HashMap<Integer,Integer>();
-
-    /** Mapping from document identifier to document euclidian length */
-    public HashMap<Integer,Double> euclidianLengths = new HashMap<Integer,Double>();
-
-    public HashMap<Integer,HashMap<String,Integer>> docWords = new HashMap<Integer,HashMap<String,Integer>>();
+    /** The names, lengths and euclidian lengths of the documents, by docID. */
+    public DocumentStore documents = new DocumentStore();
 
 
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
 
+    /**
+     *  Inserts all postings of a token. Their docIDs must come after
+     *  those of every posting of the token inserted so far.
+     */
+    public default void insert( String token, PostingsList postings ) {
+        for ( int i=0; i<postings.size(); i++ ) {
+            for ( int j=0; j<postings.offsetCount(i); j++ ) {
+                insert( token, postings.docID(i), postings.getOffset(i, j) );
+            }
+        }
+    }
+
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
 
@@ -39,6 +40,9 @@ public interface Index {
 
     public void readPageRank(String filename);
 
+    /** Returns the pagerank of a document, or 0 if it has none. */
+    public double getPageRank(int docID);
+
     public void writeEuclideanIndex(String euclidean_File);
 
     public void createAndWriteEuclideanIndex(String filename);
@@ -9,7 +9,10 @@ package ir;
 
 import java.io.*;
 import java.util.*;
-import java.nio.charset.*;
+import java.nio.CharBuffer;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.function.ObjIntConsumer;
 
 
 /**
@@ -29,6 +32,25 @@ public class Indexer {
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
+    /**
+     *  The number of threads tokenizing files. With 1, files are indexed
+     *  one at a time on the calling thread.
+     */
+    int threads = 1;
+
+    /** The number of files a worker thread tokenizes at a time. */
+    static final int BATCH_SIZE = 64;
+
+    /** The reader of each indexing thread, which keeps its buffers between files. */
+    private final ThreadLocal<DocumentReader> readers = ThreadLocal.withInitial( DocumentReader::new );
+
+    /**
+     *  The token cache of each indexing thread. The caches only live as
+     *  long as a processFiles call: the worker threads go away at its
+     *  end, and the calling thread drops its own cache and reader.
+     */
+    private final ThreadLocal<TokenCache> tokenCaches = ThreadLocal.withInitial( TokenCache::new );
+
 
     /* ----------------------------------------------- */
 
@@ -41,55 +63,233 @@ public class Indexer {
     }
 
 
-    /** Generates a new document identifier as an integer. */
+    /**
+     *  Generates a new document identifier as an integer. Files get their
+     *  docIDs in the order of a depth-first walk over sorted directory
+     *  listings (see nextFile), so the same files always get the same docIDs.
+     */
     private int generateDocID() {
         return lastDocID++;
     }
 
 
+    /**
+     *  Returns the next file to index from a depth-first walk over the
+     *  paths on <code>stack</code>, or null when the walk is done. The
+     *  entries of a directory are visited sorted by name, since a
+     *  directory listing comes in whatever order the file system keeps
+     *  the entries, which differs between systems and even between
+     *  copies of the same directory.
+     */
+    static Path nextFile( Deque<Path> stack ) {
+        while ( !stack.isEmpty() ) {
+            Path path = stack.pop();
+            // do not try to index files that cannot be read
+            if ( !Files.isReadable( path )) {
+                continue;
+            }
+            if ( !Files.isDirectory( path )) {
+                return path;
+            }
+            ArrayList<Path> entries = new ArrayList<Path>();
+            try ( DirectoryStream<Path> dir = Files.newDirectoryStream( path )) {
+                for ( Path entry : dir ) {
+                    entries.add( entry );
+                }
+            } catch ( IOException | DirectoryIteratorException e ) {
+                // an IO error could occur; index what could be listed
+            }
+            entries.sort( Comparator.comparing( entry -> entry.getFileName().toString() ));
+            for ( int i=entries.size()-1; i>=0; i-- ) {
+                stack.push( entries.get( i ));
+            }
+        }
+        return null;
+    }
+
 
     /**
      *  Tokenizes and indexes the file @code{f}. If <code>f</code> is a directory,
      *  all its files and subdirectories are recursively processed.
      */
     public void processFiles( File f, boolean is_indexing , boolean euclidianExists) {
-        // do not try to index fs that cannot be read
-        if (is_indexing) {
-            if ( f.canRead() ) {
-                if ( f.isDirectory() ) {
-                    String[] fs = f.list();
-                    // an IO error could occur
-                    if ( fs != null ) {
-                        for ( int i=0; i<fs.length; i++ ) {
-                            processFiles( new File( f, fs[i] ), is_indexing, euclidianExists);
-                        }
-                    }
-                } else {
-                    // First register the document and get a docID
-                    int docID = generateDocID();
-                    if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
-                    try {
-                        Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
-                        Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
-                        int offset = 0;
-                        HashMap<String,Integer> wordCount = new HashMap<String,Integer>();
-
-                        while ( tok.hasMoreTokens() ) {
-                            String token = tok.nextToken();
-                            insertIntoIndex( docID, token, offset++ );
-                            wordCount.put(token, wordCount.getOrDefault(token, 0) + 1);
-                        }
-
-                        index.docNames.put( docID, f.getPath() );
-                        index.docLengths.put( docID, offset );
-                        index.docWords.put(docID, wordCount);
-
-                        reader.close();
-                    } catch ( IOException e ) {
-                        System.err.println( "Warning: IOException during indexing." );
-                    }
+        if ( !is_indexing ) {
+            return;
+        }
+        try {
+            if ( threads > 1 ) {
+                processFilesInParallel( f );
+                return;
+            }
+            Deque<Path> stack = new ArrayDeque<Path>();
+            stack.push( f.toPath() );
+            Path file;
+            while (( file = nextFile( stack )) != null ) {
+                // First register the document and get a docID
+                int docID = generateDocID();
+                if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
+                try {
+                    int length = tokenize( file, ( token, offset ) -> insertIntoIndex( docID, token, offset ));
+                    index.documents.add( docID, file.toString(), length );
+                } catch ( IOException e ) {
+                    System.err.println( "Warning: IOException during indexing." );
                 }
             }
+        } finally {
+            // the cache holds a copy of the vocabulary, and the reader a
+            // buffer as large as the largest file
+            tokenCaches.remove();
+            readers.remove();
+        }
+    }
+
+
+    /**
+     *  Tokenizes a file, and passes each token with its offset (counting
+     *  tokens from 0) to <code>tokens</code>. The file is read in one go
+     *  by the DocumentReader of the calling thread, and the tokens are
+     *  taken from the tokenizer's buffer through the thread's TokenCache,
+     *  so only words not seen before become new Strings.
+     *
+     *  @return The number of tokens in the file.
+     */
+    private int tokenize( Path file, ObjIntConsumer<String> tokens ) throws IOException {
+        CharBuffer text = readers.get().read( file );
+        Reader reader = new CharArrayReader( text.array(), text.arrayOffset(), text.limit() );
+        Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
+        TokenCache cache = tokenCaches.get();
+        int offset = 0;
+        while ( tok.advance() ) {
+            tokens.accept( cache.get( tok.tokenBuffer(), tok.tokenStart(), tok.tokenLength() ), offset++ );
+        }
+        return offset;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  The postings of a batch of files with consecutive docIDs, built by
+     *  one worker thread before they are added to the index.
+     */
+    private static class Segment {
+        final int firstDocID;
+        final Path[] files;
+        /** The number of tokens in each file, or -1 if it could not be read. */
+        final int[] lengths;
+        /** The postings of the batch, with the terms in order of first occurrence. */
+        final LinkedHashMap<String,PostingsList> postings = new LinkedHashMap<String,PostingsList>();
+
+        Segment( int firstDocID, Path[] files ) {
+            this.firstDocID = firstDocID;
+            this.files = files;
+            this.lengths = new int[files.length];
+        }
+    }
+
+
+    /**
+     *  Indexes the files under <code>f</code> with <code>threads</code>
+     *  worker threads.
+     *
+     *  This thread walks the directory tree in the same order as
+     *  processFiles, gives each file its docID, and hands the files out in
+     *  batches of BATCH_SIZE. Each worker tokenizes a batch into a
+     *  Segment of its own. The segments are added to the index by this
+     *  thread, in docID order, so the index itself is only ever used by
+     *  one thread and gets its postings in increasing docID order. If a
+     *  worker fails, its exception is thrown from here, rather than
+     *  leaving the index without the worker's files.
+     */
+    private void processFilesInParallel( File f ) {
+        ExecutorService workers = Executors.newFixedThreadPool( threads );
+        ArrayDeque<Future<Segment>> pending = new ArrayDeque<Future<Segment>>();
+        ArrayList<Path> batch = new ArrayList<Path>();
+        try {
+            Deque<Path> stack = new ArrayDeque<Path>();
+            stack.push( f.toPath() );
+            Path file;
+            while (( file = nextFile( stack )) != null ) {
+                batch.add( file );
+                if ( batch.size() == BATCH_SIZE ) {
+                    submit( workers, pending, batch );
+                    batch.clear();
+                }
+                // keep the number of segments waiting to be added bounded
+                while ( pending.size() > 2 * threads ) {
+                    addSegment( pending.remove().get() );
+                }
+            }
+            if ( !batch.isEmpty() ) {
+                submit( workers, pending, batch );
+            }
+            while ( !pending.isEmpty() ) {
+                addSegment( pending.remove().get() );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException e ) {
+            // a worker failed, and the index would silently lack its files
+            Throwable cause = e.getCause();
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException( cause );
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+
+    /** Gives the files in batch their docIDs, and has a worker tokenize them. */
+    private void submit( ExecutorService workers, ArrayDeque<Future<Segment>> pending, List<Path> batch ) {
+        int firstDocID = lastDocID;
+        for ( int i=0; i<batch.size(); i++ ) {
+            generateDocID();
+        }
+        Segment segment = new Segment( firstDocID, batch.toArray( new Path[0] ));
+        pending.add( workers.submit( () -> tokenizeSegment( segment )));
+    }
+
+
+    /** Tokenizes the files of a segment into its postings. Runs on a worker thread. */
+    private Segment tokenizeSegment( Segment segment ) {
+        for ( int i=0; i<segment.files.length; i++ ) {
+            int docID = segment.firstDocID + i;
+            try {
+                segment.lengths[i] = tokenize( segment.files[i], ( token, offset ) -> {
+                    PostingsList pl = segment.postings.get( token );
+                    if ( pl == null ) {
+                        pl = new PostingsList();
+                        segment.postings.put( token, pl );
+                    }
+                    pl.addPosting( docID, offset );
+                });
+            } catch ( IOException e ) {
+                System.err.println( "Warning: IOException during indexing." );
+                segment.lengths[i] = -1;
+            }
+        }
+        return segment;
+    }
+
+
+    /** Adds the postings and documents of a tokenized segment to the index. */
+    private void addSegment( Segment segment ) {
+        for ( Map.Entry<String,PostingsList> entry : segment.postings.entrySet() ) {
+            String token = entry.getKey();
+            index.insert( token, entry.getValue() );
+            if ( kgIndex != null ) {
+                kgIndex.insert( token );
+            }
+        }
+        for ( int i=0; i<segment.files.length; i++ ) {
+            int docID = segment.firstDocID + i;
+            if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
+            if ( segment.lengths[i] >= 0 ) {
+                index.documents.add( docID, segment.files[i].toString(), segment.lengths[i] );
+            }
         }
     }
 
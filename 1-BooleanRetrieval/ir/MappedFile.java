@@ -0,0 +1,76 @@
+package ir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  A read-only view of a file through memory-mapped buffers.
+ *
+ *  A single MappedByteBuffer can cover at most 2 GB, so the file is
+ *  mapped as a sequence of segments. Reads never move a shared file
+ *  pointer, which means that several threads can read at the same time.
+ */
+public class MappedFile {
+
+    /** The number of bytes covered by each mapped segment. */
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    /** The mapped segments, in file order. */
+    private MappedByteBuffer[] segments;
+
+    /** The length of the file when it was mapped. */
+    private long length;
+
+
+    /**
+     *  Maps the whole of <code>file</code>. Later changes to the length
+     *  of the file are not visible through this object.
+     */
+    public MappedFile( RandomAccessFile file ) throws IOException {
+        FileChannel channel = file.getChannel();
+        length = channel.size();
+        int n = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[n];
+        for ( int i = 0; i < n; i++ ) {
+            long start = (long) i * SEGMENT_SIZE;
+            long size = Math.min( SEGMENT_SIZE, length - start );
+            segments[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, size );
+        }
+    }
+
+
+    /** The length of the mapped file. */
+    public long length() {
+        return length;
+    }
+
+
+    /**
+     *  Copies <code>len</code> bytes starting at position <code>pos</code>
+     *  in the file into <code>dst</code>, starting at <code>off</code>.
+     *
+     *  @throws EOFException if the range goes past the end of the file.
+     */
+    public void read( long pos, byte[] dst, int off, int len ) throws IOException {
+        if ( pos < 0 || pos + len > length ) {
+            throw new EOFException( "Read of " + len + " bytes at " + pos + " past end of file (" + length + ")" );
+        }
+        while ( len > 0 ) {
+            int segment = (int) (pos / SEGMENT_SIZE);
+            int start = (int) (pos % SEGMENT_SIZE);
+            int n = Math.min( len, SEGMENT_SIZE - start );
+            // A duplicate has its own position, so concurrent readers
+            // don't interfere with each other.
+            ByteBuffer buf = segments[segment].duplicate();
+            buf.position( start );
+            buf.get( dst, off, n );
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ir;
+
+/**
+ *  MurmurHash3 (the x64, 128-bit variant by Austin Appleby), truncated
+ *  to the first 64 bits. The token is hashed as its UTF-16LE bytes,
+ *  read straight from the chars, so no byte array is allocated.
+ */
+public class Murmur3Hash implements DictionaryHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    public long hash( String token ) {
+        int len = token.length();
+        long h1 = 0;
+        long h2 = 0;
+
+        // Body: 16 bytes (8 chars) at a time
+        int i = 0;
+        for ( ; i + 8 <= len; i += 8 ) {
+            long k1 = pack( token, i, 4 );
+            long k2 = pack( token, i + 4, 4 );
+
+            h1 ^= mixK1( k1 );
+            h1 = Long.rotateLeft( h1, 27 );
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2( k2 );
+            h2 = Long.rotateLeft( h2, 31 );
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Tail: the remaining 0-7 chars
+        int rest = len - i;
+        if ( rest > 4 ) {
+            h2 ^= mixK2( pack( token, i + 4, rest - 4 ));
+        }
+        if ( rest > 0 ) {
+            h1 ^= mixK1( pack( token, i, Math.min( rest, 4 )));
+        }
+
+        // Finalization
+        h1 ^= 2L * len;
+        h2 ^= 2L * len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix( h1 );
+        h2 = fmix( h2 );
+        h1 += h2;
+        return h1;
+    }
+
+    /** Packs <code>n</code> chars, starting at <code>start</code>, little-endian into a long. */
+    private static long pack( String s, int start, int n ) {
+        long k = 0;
+        for ( int j = n - 1; j >= 0; j-- ) {
+            k = (k << 16) | s.charAt( start + j );
+        }
+        return k;
+    }
+
+    private static long mixK1( long k1 ) {
+        k1 *= C1;
+        k1 = Long.rotateLeft( k1, 31 );
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2( long k2 ) {
+        k2 *= C2;
+        k2 = Long.rotateLeft( k2, 33 );
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix( long k ) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -1,8 +1,5 @@
 package ir;
 
-import static ir.PersistentHashedIndex.getChecksum;
-import static ir.PersistentHashedIndex.getDictPtr;
-
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -12,11 +9,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
-import java.util.StringTokenizer;
 
 public class PersistantScalableHashedIndex extends PersistentHashedIndex{
     
@@ -32,6 +27,9 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
 
     ArrayList<Merger> mergers = new ArrayList<Merger>();
 
+    /** The file to write the euclidean lengths to once the index is merged, or null. */
+    private String euclideanFile = null;
+
     public PersistantScalableHashedIndex(){
         
         super();
@@ -57,7 +55,30 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
      *  Inserts this token in the main-memory hashtable.
      */
     public void insert( String token, int docID, int offset ) {
+        switchIndexFileIfFull();
+
+        PostingsList pl = index.get(token);
+        // new token
+        if(pl == null){
+            pl = new PostingsList();
+            index.put(token, pl);
+        }
+        pl.addPosting(docID, offset);
+    }
+
+    /**
+     *  Inserts the postings of a token in the main-memory hashtable.
+     */
+    public void insert( String token, PostingsList postings ) {
+        switchIndexFileIfFull();
+        super.insert( token, postings );
+    }
 
+    /**
+     *  Writes the hashtable to the next index file once it holds
+     *  MAXTOKENS terms, and merges the files written so far.
+     */
+    private void switchIndexFileIfFull() {
         // switch to next index file
         if(index.keySet().size() % MAXTOKENS == 0 && index.keySet().size() != 0){
             System.out.println("Writing index to disk...");
@@ -89,27 +110,6 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
                 tryMerge();
             }
         }
-
-        // new token
-        if(index.get(token) == null){
-            PostingsList pl = new PostingsList();
-            PostingsEntry pe = new PostingsEntry(docID);
-            pe.offset.add(offset);
-            pl.add(pe);
-            index.put(token, pl);
-        }
-        // existing token
-        else{
-            PostingsList pl = index.get(token);
-            PostingsEntry pe = new PostingsEntry(docID);
-            if(pl.get(pl.size()-1).docID != docID){
-                pe.offset.add(offset);
-                pl.add(pe);
-                index.put(token, pl);
-            }else{
-                pl.get(pl.size()-1).offset.add(offset);
-            }
-        }
     }
 
     /**
@@ -196,6 +196,7 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
 
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME + finalIndex, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME + finalIndex, "rw" );
+            header = readHeader( dictionaryFile );
 
             mergeQueue.remove(0);
         }catch(IOException e){
@@ -208,9 +209,29 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
             e.printStackTrace();
         }
 
+        if(euclideanFile != null){
+            // index is empty now, so the lengths are read from the merged files
+            super.createAndWriteEuclideanIndex(euclideanFile);
+            euclideanFile = null;
+        }
+
         System.out.println("Cleanup done (all done)");
     }
 
+    /**
+     *  Computes and writes the euclidean lengths. Once some postings have
+     *  been written out to index files, the ones in memory are only the
+     *  last part of the index, so the lengths are left until cleanup()
+     *  has merged all the files, and then computed from the merged one.
+     */
+    public void createAndWriteEuclideanIndex(String filename){
+        if(dc == 0){
+            super.createAndWriteEuclideanIndex(filename);
+        }else{
+            euclideanFile = filename;
+        }
+    }
+
     public void tryMerge(){;
             while(mergeQueue.size() > 1){
                 Collections.sort(mergeQueue);
@@ -248,12 +269,20 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
                 RandomAccessFile data2 = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME + i2, "r" );
                 BufferedReader term2 = new BufferedReader(new FileReader(INDEXDIR + "/" + TERMS_FNAME + i2));
 
+                Header header1 = readHeader(dict1);
+                Header header2 = readHeader(dict2);
+
                 RandomAccessFile dict3 = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME + "0" + (i1 + i2), "rw" );
                 RandomAccessFile data3 = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME + "0" + (i1 + i2), "rw" );
                 File term3 = new File( INDEXDIR + "/" + TERMS_FNAME + "0" + (i1 + i2));
                 term3.createNewFile();
                 PrintStream term3Writer = new PrintStream(term3, "UTF-8");
 
+                // the merged segment has at most the terms of both segments
+                long terms = (header1 == null ? 0 : header1.termCount) + (header2 == null ? 0 : header2.termCount);
+                Header header3 = new Header(DICTIONARY_VERSION, tableSizeFor(terms), hashType);
+                createDictionary(dict3, header3);
+
                 String t1 = term1.readLine();
                 String t2 = term2.readLine();
                 String curTerm;
@@ -274,26 +303,26 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
                     if(t1 == null){
                         curTerm = t2;
                         t2 = term2.readLine();
-                        pl2 = getPostings(curTerm, dict2, data2);
+                        pl2 = getPostings(curTerm, header2, dict2, data2);
                     }else if(t2 == null){
                         curTerm = t1;
                         t1 = term1.readLine();
-                        pl1 = getPostings(curTerm, dict1, data1);
+                        pl1 = getPostings(curTerm, header1, dict1, data1);
                     }else{
                         if(t1.compareTo(t2) < 0){
                             curTerm = t1;
                             t1 = term1.readLine();
-                            pl1 = getPostings(curTerm, dict1, data1);
+                            pl1 = getPostings(curTerm, header1, dict1, data1);
                         }else if(t1.compareTo(t2) > 0){
                             curTerm = t2;
                             t2 = term2.readLine();
-                            pl2 = getPostings(curTerm, dict2, data2);
+                            pl2 = getPostings(curTerm, header2, dict2, data2);
                         }else{
                             curTerm = t1;
                             t1 = term1.readLine();
                             t2 = term2.readLine();
-                            pl1 = getPostings(curTerm, dict1, data1);
-                            pl2 = getPostings(curTerm, dict2, data2);
+                            pl1 = getPostings(curTerm, header1, dict1, data1);
+                            pl2 = getPostings(curTerm, header2, dict2, data2);
                         }
                     }
 
@@ -303,22 +332,24 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
                         continue;
                     }
 
-                    Entry entry;
+                    PostingsList merged;
                     if(pl1 == null){
-                        sizeMerger = writeData(pl2.toString(), freeMerger, data3);
-                        entry = new Entry(curTerm, freeMerger, pl2.toString(), sizeMerger);
+                        merged = pl2;
                     }else if(pl2 == null){
-                        sizeMerger = writeData(pl1.toString(), freeMerger, data3);
-                        entry = new Entry(curTerm, freeMerger, pl1.toString(), sizeMerger);
+                        merged = pl1;
                     }else{
                         pl1.merge(pl2);
-                        sizeMerger = writeData(pl1.toString(), freeMerger, data3);
-                        entry = new Entry(curTerm, freeMerger, pl1.toString(), sizeMerger);
+                        merged = pl1;
                     }
+                    byte[] data = PostingsCodec.encode(merged, postingsFormat);
+                    sizeMerger = writeData(data, freeMerger, data3);
+                    Entry entry = new Entry(curTerm, freeMerger, data, sizeMerger, merged.size());
                     
                     freeMerger += sizeMerger;
-                    writeEntry(entry, dict3);
+                    writeEntry(entry, header3, dict3);
                 }
+                writeHeader(dict3, header3);
+
                 dict1.close();
                 data1.close();
                 term1.close();
@@ -335,123 +366,29 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
             }
             catch(IOException e){
                 e.printStackTrace();
-            } catch (NoSuchAlgorithmException e) {
-                e.printStackTrace();
             }
             System.out.println(mergeQueue.toString());
             // tryMerge(); // added after testing. Might be a bad idea
         }
     }
 
-    /*
-     *  Writes an entry to the dictionary hash table file. 
-     *
-     *  @param entry The key of this entry is assumed to have a fixed length
-     *  @param ptr   The place in the dictionary file to store the entry
-     */
-    void writeEntry( Entry entry, RandomAccessFile dictionaryFile ) throws NoSuchAlgorithmException{
-        
-        // pad data
-        String data = Long.toString(entry.ptr);
-        while(data.length() < MAXDATAPTRLENGTH){
-            data = "0" + data;
-        }
-        if(data.length() > MAXDATAPTRLENGTH){
-            System.out.println("Data length too long: " + data + " with length " + data.length());
-        }
-
-        // pad size
-        String size = Integer.toString(entry.size);
-        while(size.length() < MAXLENGTH){   
-            size = "0" + size;
-        }
-
-        String checksum = getChecksum(entry.token);
-
-        long ptr = getDictPtr(entry.token);
-        String hash = entry.token;
-
-        try {
-            // check for collision
-            while(true){
-                if(dictionaryFile.length() > ptr + ENTRYSIZE){
-                    dictionaryFile.seek( ptr );
-                    byte[] read = new byte[ENTRYSIZE];
-                    dictionaryFile.readFully( read );
-                    String dictEntry = new String(read);
-                    if(dictEntry.matches(".*\\d.*")){
-                        ptr = getDictPtr(getChecksum(hash));
-                        hash = getChecksum(hash);
-                        collisions++;
-                        // System.out.println("Collision! " + hash + " " + ptr + " " + collisions);
-                    }else{
-                        break;
-                    }
-                }else{
-                    break; 
-                }
-            }
-
-            // write
-            dictionaryFile.seek( ptr ); 
-            byte[] dataToWrite = data.getBytes();
-            dictionaryFile.write( dataToWrite );
-            byte[] sizeToWrite = size.getBytes();
-            dictionaryFile.write( sizeToWrite );
-            byte[] checksumToWrite = checksum.getBytes();
-            dictionaryFile.write( checksumToWrite );
-
-        } catch ( IOException e ) {
-            e.printStackTrace();
-        }
-
-    }
-
-    /**
-     *  Writes data to the data file at a specified place.
-     *
-     *  @return The number of bytes written.
-     */ 
-    int writeData( String dataString, long ptr, RandomAccessFile dataFile) {
-        try {
-            dataFile.seek( ptr ); 
-            byte[] data = dataString.getBytes();
-            dataFile.write( data );
-            return data.length;
-        } catch ( IOException e ) {
-            e.printStackTrace();
-            return -1;
-        }
-    }
-
-    
     public PostingsList getPostings( String token){
-        return getPostings( token, dictionaryFile, dataFile );
+        return getPostings( token, header, dictionaryFile, dataFile );
     }
 
     /**
      *  Returns the postings for a specific term, or null
      *  if the term is not in the index.
      */
-    public PostingsList getPostings( String token , RandomAccessFile dictionaryFile, RandomAccessFile dataFile) {
+    public PostingsList getPostings( String token , Header header, RandomAccessFile dictionaryFile, RandomAccessFile dataFile) {
         //
         //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
         try{
-            Entry entry = readEntry(token, dictionaryFile, dataFile);
+            Entry entry = readEntry(token, header, dictionaryFile, dataFile);
 
             if(entry != null){
-                PostingsList pl = new PostingsList();
-                StringTokenizer st = new StringTokenizer(entry.repr, ":;");
-                while(st.hasMoreTokens()){
-                    int docID = Integer.parseInt(st.nextToken());
-                    PostingsEntry pe = new PostingsEntry(docID);
-                    StringTokenizer st2 = new StringTokenizer(st.nextToken(), ",");
-                    while(st2.hasMoreTokens()){
-                        pe.offset.add(Integer.parseInt(st2.nextToken()));
-                    }
-                    pl.add(pe);
-                }
+                PostingsList pl = PostingsCodec.decode(entry.data, 0, entry.size);
                 // System.out.println("Returning " + pl.toString() + " for " + token);
                 return pl;
             }else{
@@ -463,66 +400,7 @@ public class PersistantScalableHashedIndex extends PersistentHashedIndex{
             System.out.println(e.getMessage());
             System.out.println(e.getLocalizedMessage());
             e.printStackTrace();
-        }catch(NoSuchAlgorithmException e){
-            e.printStackTrace();
         }
         return null;
     }
-
-    Entry readEntry( String token, RandomAccessFile dictionaryFile, RandomAccessFile dataFile ) throws IOException, NoSuchAlgorithmException {   
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE 
-        //
-        long ptr = getDictPtr(token);
-        String hash = token;
-
-        int count = 0;
-        while(true){
-            // System.out.println("Reading entry for " + token + " at " + ptr + " (Thread " + Thread.currentThread().getName() + ")");
-            // System.out.println(dc);
-            if(dictionaryFile.length() <= ptr + ENTRYSIZE){
-                // System.out.println("Entry " + token + " not found");
-                return null;
-            }
-            dictionaryFile.seek( ptr );
-            byte[] read = new byte[ENTRYSIZE];
-            dictionaryFile.readFully( read );
-            String dictEntry = new String(read);
-            if(!dictEntry.matches(".*[0-9].*")){
-                // System.out.println("Entry " + token + " not found");
-                return null;
-            }
-
-            // System.out.println("token: " + token + " DictEntry: " + dictEntry + " length: " + dictEntry.length());
-            long dataPtr = Long.parseLong(dictEntry.substring(0, MAXDATAPTRLENGTH));
-            long size = Long.parseLong(dictEntry.substring(MAXDATAPTRLENGTH, MAXDATAPTRLENGTH + MAXLENGTH));
-            String checksum = dictEntry.substring(MAXDATAPTRLENGTH + MAXLENGTH, MAXDATAPTRLENGTH + MAXLENGTH + HASHLENGTH);
-
-            if(checksum.equals(getChecksum(token))){
-                return new Entry(token, dataPtr, readData(dataPtr, (int)size, dataFile), (int)size);
-            }else if(count == 50){
-                return null;
-            }else{
-                ptr = getDictPtr(getChecksum(hash));
-                hash = getChecksum(hash);
-                count++;
-            }
-        }
-        
-    }
-    
-    /**
-     *  Reads data from the data file
-     */ 
-    String readData( long ptr, int size , RandomAccessFile dataFile) {
-        try {
-            dataFile.seek( ptr );
-            byte[] data = new byte[size];
-            dataFile.readFully( data );
-            return new String(data);
-        } catch ( IOException e ) {
-            e.printStackTrace();
-            return null;
-        }
-    }
 }
@@ -10,9 +10,6 @@ package ir;
 import java.io.*;
 import java.util.*;
 import java.nio.ByteBuffer;
-import java.nio.charset.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 
 /*
@@ -43,21 +40,33 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
-    /** The dictionary hash table on disk can fit this many entries. */
-    // public static final long TABLESIZE = 611953L;
-    public static final long TABLESIZE = 7000029L;
+    /**
+     *  The largest fraction of the dictionary slots that may be in use.
+     *  The size of the table is chosen from the number of terms when
+     *  the index is written.
+     */
+    public static final double LOAD_FACTOR = 0.5;
 
-    /** The maximum length of the size (number of characters) of a data entry. */
-    public static final int MAXLENGTH = 10;  // 6 is an assumption
+    /** Marks a dictionary file written in the binary format ("IRDX"). */
+    public static final int DICTIONARY_MAGIC = 0x49524458;
 
-    /** The length of a hash saved to check for collisions */
-    public static final int HASHLENGTH = 19;
+    /**
+     *  The version of the dictionary format written by this class. Only
+     *  this version can be read: an index written in an earlier format
+     *  has to be built again (run without -ni).
+     */
+    public static final int DICTIONARY_VERSION = 4;
 
-    /** The length of the data entry */
-    public static final int MAXDATAPTRLENGTH = 16;  // 16 is an assumption
+    /** The number of bytes reserved for the header at the start of the dictionary file. */
+    public static final int HEADERSIZE = 64;
 
-    /** The size of the dictionary entry */
-    public static final int ENTRYSIZE = MAXLENGTH + MAXDATAPTRLENGTH + HASHLENGTH;
+    /**
+     *  The size of the dictionary entry: an occupancy marker (1 byte), the
+     *  pointer into the data file (8 bytes), the size of the data (4 bytes),
+     *  the 64-bit hash of the token to detect collisions (8 bytes) and the
+     *  document frequency of the token (4 bytes).
+     */
+    public static final int ENTRYSIZE = 1 + 8 + 4 + 8 + 4;
 
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
@@ -65,9 +74,25 @@ public class PersistentHashedIndex implements Index {
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** Memory-mapped views of the dictionary and data files, or null if the index is not read-only. */
+    MappedFile mappedDictionary;
+    MappedFile mappedData;
+
+    /** The header of the dictionary file, or null if the file could not be read. */
+    Header header;
+
+    /** Why the dictionary file found on disk can't be read, or null. */
+    String dictionaryError = null;
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
+    /** The format used for the postings lists when writing the index (see PostingsCodec). */
+    public int postingsFormat = PostingsCodec.VBYTE;
+
+    /** The hash function used for the dictionary when writing the index (see DictionaryHash). */
+    public int hashType = DictionaryHash.MURMUR3;
+
     int collisions = 0;
 
     /** The cache as a main-memory hash map. */
@@ -85,23 +110,46 @@ public class PersistentHashedIndex implements Index {
     public class Entry {
         protected String token;
         protected long ptr;
-        protected String repr;
+        protected byte[] data;
         protected int size;
+        protected int df;
 
         //
         //  YOUR CODE HERE
         //
 
-        public Entry(String token, long ptr, String repr, int size){
+        public Entry(String token, long ptr, byte[] data, int size, int df){
             this.token = token; // the token
             this.ptr = ptr; // pointer to the data file
-            this.repr = repr; // string representation of the postings list
-            this.size = size;   // size of the string representation
+            this.data = data; // encoded postings list
+            this.size = size;   // size of the encoded postings list
+            this.df = df;       // number of documents in the postings list
         }
 
     }
 
 
+    /**
+     *  The header at the start of a dictionary file. The header occupies
+     *  HEADERSIZE bytes, and the hash table slots follow it.
+     */
+    public static class Header {
+        protected int version;
+        protected long tableSize;
+        protected int hashType;
+        protected DictionaryHash hash;
+        protected int maxProbe = 0;   // the furthest any entry is from its home slot
+        protected long termCount = 0; // the number of entries in the table
+
+        public Header(int version, long tableSize, int hashType){
+            this.version = version;     // format version of the dictionary
+            this.tableSize = tableSize; // number of slots in the hash table
+            this.hashType = hashType;   // the hash function the table was built with
+            this.hash = DictionaryHash.forType(hashType);
+        }
+    }
+
+
     // ==================================================================
 
     
@@ -117,6 +165,13 @@ public class PersistentHashedIndex implements Index {
             e.printStackTrace();
         }
 
+        try {
+            header = readHeader( dictionaryFile );
+        } catch ( IOException e ) {
+            // not an error yet, since the index may be about to be rebuilt
+            dictionaryError = e.getMessage();
+        }
+
         try {
             readDocInfo();
         } catch ( FileNotFoundException e ) {
@@ -125,15 +180,57 @@ public class PersistentHashedIndex implements Index {
         }
     }
 
+    /**
+     *  Returns why the index on disk can't be searched, or null if it
+     *  can. Only meaningful when the index is loaded rather than built.
+     */
+    public String loadError() {
+        if ( dictionaryError != null ) {
+            return dictionaryError;
+        }
+        if ( header == null ) {
+            return "No index was found in " + INDEXDIR + ". Please index first (run without -ni).";
+        }
+        return null;
+    }
+
+    /**
+     *  Switches the index to read-only mode, where the dictionary and the
+     *  data file are read through memory-mapped buffers instead of seeks
+     *  on the RandomAccessFiles. Lookups then don't share a file pointer,
+     *  so several searches can run at the same time. The index must not
+     *  be written to after this call.
+     */
+    public void mapIndexFiles() {
+        try {
+            mappedDictionary = new MappedFile( dictionaryFile );
+            mappedData = new MappedFile( dataFile );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            mappedDictionary = null;
+            mappedData = null;
+        }
+    }
+
+
     /**
      *  Writes data to the data file at a specified place.
      *
      *  @return The number of bytes written.
      */ 
-    int writeData( String dataString, long ptr ) {
+    int writeData( byte[] data, long ptr ) {
+        return writeData( data, ptr, dataFile );
+    }
+
+
+    /**
+     *  Writes data to the given data file at a specified place.
+     *
+     *  @return The number of bytes written.
+     */ 
+    int writeData( byte[] data, long ptr, RandomAccessFile dataFile ) {
         try {
             dataFile.seek( ptr ); 
-            byte[] data = dataString.getBytes();
             dataFile.write( data );
             return data.length;
         } catch ( IOException e ) {
@@ -146,12 +243,28 @@ public class PersistentHashedIndex implements Index {
     /**
      *  Reads data from the data file
      */ 
-    String readData( long ptr, int size ) {
+    byte[] readData( long ptr, int size ) {
+        return readData( ptr, size, dataFile );
+    }
+
+
+    /**
+     *  Reads data from the given data file
+     */ 
+    byte[] readData( long ptr, int size, RandomAccessFile dataFile ) {
         try {
-            dataFile.seek( ptr );
             byte[] data = new byte[size];
-            dataFile.readFully( data );
-            return new String(data);
+            if ( mappedData != null && dataFile == this.dataFile ) {
+                mappedData.read( ptr, data, 0, size );
+                return data;
+            }
+            // the file pointer is shared, so seek and read must not interleave
+            // with another reader
+            synchronized ( dataFile ) {
+                dataFile.seek( ptr );
+                dataFile.readFully( data );
+            }
+            return data;
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -163,104 +276,243 @@ public class PersistentHashedIndex implements Index {
     //
     //  Reading and writing to the dictionary file.
 
-    /*
-     *  Writes an entry to the dictionary hash table file. 
+    /**
+     *  Reads the header of a dictionary file.
      *
-     *  @param entry The key of this entry is assumed to have a fixed length
-     *  @param ptr   The place in the dictionary file to store the entry
+     *  @return The header, or null if the file is empty.
+     *  @throws IOException If the file is not a dictionary in the format
+     *  this class writes, with a message saying what to do about it.
      */
-    void writeEntry( Entry entry ) throws NoSuchAlgorithmException{
-        
-        // pad data
-        String data = Long.toString(entry.ptr);
-        while(data.length() < MAXDATAPTRLENGTH){
-            data = "0" + data;
+    Header readHeader( RandomAccessFile dictionaryFile ) throws IOException {
+        if ( dictionaryFile.length() == 0 ) {
+            return null;
         }
-        if(data.length() > MAXDATAPTRLENGTH){
-            System.out.println("Data length too long: " + data.length() + " " + data);
+        if ( dictionaryFile.length() < HEADERSIZE ) {
+            throw new IOException( "The dictionary file is truncated. Please re-index (run without -ni)." );
         }
-
-        // pad size
-        String size = Integer.toString(entry.size);
-        while(size.length() < MAXLENGTH){   
-            size = "0" + size;
+        dictionaryFile.seek( 0 );
+        int magic = dictionaryFile.readInt();
+        int version = dictionaryFile.readInt();
+        long tableSize = dictionaryFile.readLong();
+        int hashType = dictionaryFile.readInt();
+        int maxProbe = dictionaryFile.readInt();
+        long termCount = dictionaryFile.readLong();
+        if ( magic != DICTIONARY_MAGIC ) {
+            throw new IOException( "The dictionary was written by an earlier version of this program, before it had " +
+                                   "a format version, and can't be read. Please re-index (run without -ni)." );
+        }
+        if ( version != DICTIONARY_VERSION ) {
+            throw new IOException( "The dictionary has format version " + version + ", but only version " +
+                                   DICTIONARY_VERSION + " can be read. Please re-index (run without -ni)." );
+        }
+        try {
+            Header header = new Header( version, tableSize, hashType );
+            header.maxProbe = maxProbe;
+            header.termCount = termCount;
+            return header;
+        } catch ( IllegalArgumentException e ) {
+            throw new IOException( e.getMessage() + ". Please re-index (run without -ni)." );
         }
+    }
 
-        String checksum = getChecksum(entry.token);
 
-        long ptr = getDictPtr(entry.token);
-        String hash = entry.token;
+    /**
+     *  Writes the header to the start of a dictionary file.
+     */
+    void writeHeader( RandomAccessFile dictionaryFile, Header header ) throws IOException {
+        dictionaryFile.seek( 0 );
+        dictionaryFile.writeInt( DICTIONARY_MAGIC );
+        dictionaryFile.writeInt( header.version );
+        dictionaryFile.writeLong( header.tableSize );
+        dictionaryFile.writeInt( header.hashType );
+        dictionaryFile.writeInt( header.maxProbe );
+        dictionaryFile.writeLong( header.termCount );
+    }
 
-        try {
-            // check for collision
-            while(true){
-                if(dictionaryFile.length() > ptr + ENTRYSIZE){
-                    dictionaryFile.seek( ptr );
-                    byte[] read = new byte[ENTRYSIZE];
-                    dictionaryFile.readFully( read );
-                    String dictEntry = new String(read);
-                    if(dictEntry.matches(".*\\d.*")){
-                        ptr = getDictPtr(getChecksum(hash));
-                        hash = getChecksum(hash);
-                        collisions++;
-                    }else{
-                        break;
-                    }
-                }else{
-                    break;
-                }
-            }
 
-            // write
-            dictionaryFile.seek( ptr ); 
-            byte[] dataToWrite = data.getBytes();
-            dictionaryFile.write( dataToWrite );
-            byte[] sizeToWrite = size.getBytes();
-            dictionaryFile.write( sizeToWrite );
-            byte[] checksumToWrite = checksum.getBytes();
-            dictionaryFile.write( checksumToWrite );
+    /**
+     *  Empties a dictionary file and writes a header to it. The file is
+     *  then extended to hold the whole table, with every slot free.
+     *  Since the longest probe and the number of terms are only known
+     *  once all entries are written, writeHeader must be called again
+     *  at that point.
+     */
+    void createDictionary( RandomAccessFile dictionaryFile, Header header ) throws IOException {
+        dictionaryFile.setLength( 0 );
+        writeHeader( dictionaryFile, header );
+        dictionaryFile.setLength( HEADERSIZE + header.tableSize * ENTRYSIZE );
+    }
 
-        } catch ( IOException e ) {
-            e.printStackTrace();
+
+    /*
+     *  Writes an entry to the dictionary hash table file. 
+     *
+     *  @param entry The key of this entry is assumed to have a fixed length
+     */
+    void writeEntry( Entry entry ) throws IOException {
+        writeEntry( entry, header, dictionaryFile );
+    }
+
+
+    /*
+     *  Writes an entry to the given dictionary hash table file. 
+     *
+     *  Collisions are resolved with linear probing and Robin Hood
+     *  hashing: walking from the home slot, an entry takes the place of
+     *  any resident that is closer to its own home slot, and the resident
+     *  moves on instead. This keeps every entry close to its home slot,
+     *  and header.maxProbe records the furthest any entry ended up.
+     *
+     *  @param entry          The entry to store
+     *  @param header         The header of the dictionary file
+     *  @param dictionaryFile The dictionary file, as set up by createDictionary
+     */
+    void writeEntry( Entry entry, Header header, RandomAccessFile dictionaryFile ) throws IOException {
+        long hash = header.hash.hash(entry.token);
+        long ptr = entry.ptr;
+        int size = entry.size;
+        int df = entry.df;
+
+        long slot = Math.floorMod(hash, header.tableSize);
+        byte[] read = new byte[ENTRYSIZE];
+        ByteBuffer resident = ByteBuffer.wrap( read );
+        for(int probe = 0; probe < header.tableSize; probe++){
+            long slotPtr = HEADERSIZE + slot * ENTRYSIZE;
+            dictionaryFile.seek( slotPtr );
+            dictionaryFile.readFully( read );
+
+            if(read[0] == 0){
+                writeSlot( dictionaryFile, slotPtr, ptr, size, hash, df );
+                header.maxProbe = Math.max(header.maxProbe, probe);
+                header.termCount++;
+                return;
+            }
+
+            long residentHash = resident.getLong(13);
+            int residentProbe = probeLength(residentHash, slot, header.tableSize);
+            if(residentProbe < probe){
+                // Take the slot, and carry on with the resident instead
+                writeSlot( dictionaryFile, slotPtr, ptr, size, hash, df );
+                header.maxProbe = Math.max(header.maxProbe, probe);
+                ptr = resident.getLong(1);
+                size = resident.getInt(9);
+                df = resident.getInt(21);
+                hash = residentHash;
+                probe = residentProbe;
+            }
+            collisions++;
+            slot = (slot + 1) % header.tableSize;
         }
+        throw new IOException( "The dictionary is full (" + header.tableSize + " entries)" );
+    }
+
 
+    /**
+     *  Writes one occupied dictionary slot.
+     */
+    void writeSlot( RandomAccessFile dictionaryFile, long slotPtr, long ptr, int size, long hash, int df ) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate( ENTRYSIZE );
+        slot.put( (byte) 1 );
+        slot.putLong( ptr );
+        slot.putInt( size );
+        slot.putLong( hash );
+        slot.putInt( df );
+        dictionaryFile.seek( slotPtr ); 
+        dictionaryFile.write( slot.array() );
     }
 
+
     /**
      *  Reads an entry from the dictionary file.
      *
-     *  @param ptr The place in the dictionary file where to start reading.
-     * @throws NoSuchAlgorithmException 
+     *  @param token The token to look up.
+     *  @return The entry, or null if the token is not in the dictionary.
      */
-    Entry readEntry( String token ) throws IOException, NoSuchAlgorithmException {   
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE 
-        //
-        long ptr = getDictPtr(token);
-        String hash = token;
+    Entry readEntry( String token ) throws IOException {   
+        return readEntry( token, header, dictionaryFile, dataFile );
+    }
 
-        int count = 0;
-        while(true){
-            dictionaryFile.seek( ptr );
-            byte[] read = new byte[ENTRYSIZE];
-            dictionaryFile.readFully( read );
-            String dictEntry = new String(read);
 
-            long dataPtr = Long.parseLong(dictEntry.substring(0, MAXDATAPTRLENGTH));
-            long size = Long.parseLong(dictEntry.substring(MAXDATAPTRLENGTH, MAXDATAPTRLENGTH + MAXLENGTH));
-            String checksum = dictEntry.substring(MAXDATAPTRLENGTH + MAXLENGTH, MAXDATAPTRLENGTH + MAXLENGTH + HASHLENGTH);
+    /**
+     *  Reads an entry from the given dictionary file, together with its
+     *  data from the given data file.
+     *
+     *  Since no entry is further than header.maxProbe slots from its home
+     *  slot, all candidate slots are read with a single read.
+     *
+     *  @param token The token to look up.
+     *  @return The entry, or null if the token is not in the dictionary.
+     */
+    Entry readEntry( String token, Header header, RandomAccessFile dictionaryFile, RandomAccessFile dataFile ) throws IOException {   
+        if(header == null){
+            return null;
+        }
+        long hash = header.hash.hash(token);
+        long home = Math.floorMod(hash, header.tableSize);
+
+        int n = (int) Math.min(header.maxProbe + 1, header.tableSize);
+        byte[] read = new byte[n * ENTRYSIZE];
+        ByteBuffer slots = ByteBuffer.wrap( read );
+        int first = (int) Math.min(n, header.tableSize - home);
+        readSlots( dictionaryFile, HEADERSIZE + home * ENTRYSIZE, read, 0, first * ENTRYSIZE );
+        if(first < n){
+            // the probe sequence wraps around to the start of the table
+            readSlots( dictionaryFile, HEADERSIZE, read, first * ENTRYSIZE, (n - first) * ENTRYSIZE );
+        }
 
-            if(checksum.equals(getChecksum(token))){
-                return new Entry(token, dataPtr, readData(dataPtr, (int)size), (int)size);
-            }else if(count == 50){
+        for(int probe = 0; probe < n; probe++){
+            int off = probe * ENTRYSIZE;
+            if(read[off] == 0){
+                // entries are never removed, so a free slot ends the search
+                return null;
+            }
+            long residentHash = slots.getLong(off + 13);
+            if(residentHash == hash){
+                long dataPtr = slots.getLong(off + 1);
+                int size = slots.getInt(off + 9);
+                int df = slots.getInt(off + 21);
+                return new Entry(token, dataPtr, readData(dataPtr, size, dataFile), size, df);
+            }
+            if(probeLength(residentHash, (home + probe) % header.tableSize, header.tableSize) < probe){
+                // the token would have displaced this resident when it was written
                 return null;
-            }else{
-                ptr = getDictPtr(getChecksum(hash));
-                hash = getChecksum(hash);
-                count++;
             }
         }
-        
+        return null;
+    }
+
+
+    /**
+     *  Returns the number of dictionary slots needed to hold
+     *  <code>terms</code> terms without going over LOAD_FACTOR.
+     */
+    static long tableSizeFor( long terms ) {
+        return Math.max(1, (long) Math.ceil(terms / LOAD_FACTOR));
+    }
+
+
+    /**
+     *  Returns how many slots past its home slot an entry with the given
+     *  hash is, when stored in <code>slot</code>.
+     */
+    static int probeLength( long hash, long slot, long tableSize ) {
+        return (int) Math.floorMod(slot - Math.floorMod(hash, tableSize), tableSize);
+    }
+
+
+    /**
+     *  Reads <code>len</code> bytes of dictionary slots, starting at
+     *  <code>ptr</code>, through the memory map if there is one.
+     */
+    void readSlots( RandomAccessFile dictionaryFile, long ptr, byte[] buf, int off, int len ) throws IOException {
+        if ( mappedDictionary != null && dictionaryFile == this.dictionaryFile ) {
+            mappedDictionary.read( ptr, buf, off, len );
+        } else {
+            synchronized ( dictionaryFile ) {
+                dictionaryFile.seek( ptr );
+                dictionaryFile.readFully( buf, off, len );
+            }
+        }
     }
 
 
@@ -272,13 +524,7 @@ public class PersistentHashedIndex implements Index {
      * @throws IOException  { exception_description }
      */
     public void writeDocInfo() throws IOException {
-        FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" );
-        for ( Map.Entry<Integer,String> entry : docNames.entrySet() ) {
-            Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
-            fout.write( docInfoEntry.getBytes() );
-        }
-        fout.close();
+        documents.write( new File( INDEXDIR + "/docInfo" ));
     }
 
 
@@ -289,51 +535,40 @@ public class PersistentHashedIndex implements Index {
      * @throws     IOException  { exception_description }
      */
     protected void readDocInfo() throws IOException {
-        File file = new File( INDEXDIR + "/docInfo" );
-        FileReader freader = new FileReader(file);
-        try ( BufferedReader br = new BufferedReader(freader) ) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(";");
-                docNames.put( new Integer(data[0]), data[1] );
-                docLengths.put( new Integer(data[0]), new Integer(data[2]) );
-            }
-        }
-        freader.close();
+        documents.read( new File( INDEXDIR + "/docInfo" ));
     }
 
 
     /**
      *  Write the index to files.
-     * @throws NoSuchAlgorithmException 
      */
     public void writeIndex() {
         try {
             dataFile.setLength(0);
-            dictionaryFile.setLength(0);
+            header = new Header(DICTIONARY_VERSION, tableSizeFor(index.size()), hashType);
+            createDictionary(dictionaryFile, header);
 
-            // Write the 'docNames' and 'docLengths' hash maps to a file
+            // Write the document names and lengths to a file
             writeDocInfo();
 
             // Write the dictionary and the postings list
             for(String token : index.keySet()){
                 PostingsList pl = index.get(token);
-                String stringRepresentation = pl.toString();
-                int size = writeData(stringRepresentation, free);
+                byte[] data = PostingsCodec.encode(pl, postingsFormat);
+                int size = writeData(data, free);
 
-                Entry entry = new Entry(token, free, stringRepresentation, size);
+                Entry entry = new Entry(token, free, data, size, pl.size());
 
                 free += size;
 
                 writeEntry(entry);  
             }
+            writeHeader(dictionaryFile, header);
         } catch ( IOException e ) {
             e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         }
 
-        System.err.println( collisions + " collisions." );
+        System.err.println( collisions + " collisions, longest probe " + header.maxProbe + "." );
         
     }
 
@@ -353,26 +588,12 @@ public class PersistentHashedIndex implements Index {
             Entry entry = readEntry(token);
 
             if(entry != null){
-                PostingsList pl = new PostingsList();
-                StringTokenizer st = new StringTokenizer(entry.repr, ":;");
-                while(st.hasMoreTokens()){
-                    int docID = Integer.parseInt(st.nextToken());
-                    PostingsEntry pe = new PostingsEntry(docID);
-                    StringTokenizer st2 = new StringTokenizer(st.nextToken(), ",");
-                    while(st2.hasMoreTokens()){
-                        pe.offset.add(Integer.parseInt(st2.nextToken()));
-                    }
-                    pe.pagerank = pagerank.get(docID);
-                    pl.add(pe);
-                }
-                return pl;
+                return PostingsCodec.decode(entry.data, 0, entry.size);
             }else{
                 return null;
             }
         }catch(IOException e){
             e.printStackTrace();
-        }catch(NoSuchAlgorithmException e){
-            e.printStackTrace();
         }
         return null;
     }
@@ -386,30 +607,26 @@ public class PersistentHashedIndex implements Index {
         //  YOUR CODE HERE
         //
 
+        PostingsList pl = index.get(token);
         // new token
-        if(index.get(token) == null){
-            PostingsList pl = new PostingsList();
-            PostingsEntry pe = new PostingsEntry(docID);
-            pe.offset.add(offset);
-            pe.pagerank = pagerank.get(docID);
-            pl.add(pe);
+        if(pl == null){
+            pl = new PostingsList();
             index.put(token, pl);
         }
-        
-        // existing token
-        else{
-            PostingsList pl = index.get(token);
-            PostingsEntry pe = new PostingsEntry(docID);
-            if(pl.get(pl.size()-1).docID != docID){
-                pe.offset.add(offset);
-                pe.pagerank = pagerank.get(docID);
-                pl.add(pe);
-                index.put(token, pl);
-            }else{
-                pl.get(pl.size()-1).offset.add(offset);
-                pe.pagerank = pagerank.get(docID);
-            }
+        pl.addPosting(docID, offset);
+    }
+
+
+    /**
+     *  Inserts the postings of a token in the main-memory hashtable.
+     */
+    public void insert( String token, PostingsList postings ) {
+        PostingsList pl = index.get(token);
+        if(pl == null){
+            pl = new PostingsList();
+            index.put(token, pl);
         }
+        pl.append(postings);
     }
 
 
@@ -423,41 +640,6 @@ public class PersistentHashedIndex implements Index {
         System.err.println( "done!" );
     }
 
-    protected static long getDictPtr(String token) throws NoSuchAlgorithmException{
-        return Math.abs((getSHA(token) % TABLESIZE) * ENTRYSIZE);
-    }
-
-    public static long getSHA(String input) throws NoSuchAlgorithmException
-    {
-        // Static getInstance method is called with hashing SHA
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
- 
-        // digest() method called
-        // to calculate message digest of an input
-        // and return array of byte
-        
-
-        long hash = 0;
-        ByteBuffer wrapped = ByteBuffer.wrap(md.digest(input.getBytes(StandardCharsets.UTF_8)));
-        hash = wrapped.getLong();
-        return hash;
-    }
-
-    protected static String getChecksum(String token) throws NoSuchAlgorithmException{
-
-        // reverse token
-        String reversed = new StringBuilder(token).reverse().toString();
-
-        String hash = Long.toString(Math.abs(getSHA(reversed)));
-        
-        // pad hash
-        while(hash.length() < HASHLENGTH){
-            hash = "0" + hash;
-        }
-
-        return hash;
-    }
-
     public void readPageRank(String filename){
         System.out.println("Reading pagerank...");
         File pr = new File(filename);
@@ -476,6 +658,11 @@ public class PersistentHashedIndex implements Index {
         }
     }
 
+    public double getPageRank(int docID){
+        Double pr = pagerank.get(docID);
+        return pr == null ? 0 : pr;
+    }
+
     public void readEuclideanIndex(String filename){
         System.out.println("Reading euclidean index...");
         File el = new File(filename);
@@ -485,7 +672,7 @@ public class PersistentHashedIndex implements Index {
 
             while(in.hasNextLine()){
                 String[] line = in.nextLine().split(" ");
-                euclidianLengths.put(Integer.parseInt(line[0]), Double.parseDouble(line[1]));
+                documents.setEuclideanLength(Integer.parseInt(line[0]), Double.parseDouble(line[1]));
             }
         } catch (FileNotFoundException e) {
             e.printStackTrace();
@@ -495,37 +682,65 @@ public class PersistentHashedIndex implements Index {
     public void createAndWriteEuclideanIndex(String filename){
         System.out.println("Creating euclidean index...");
         // for every document in the index, calculate the euclidean length
-
-        int N = docNames.size();
-
-        HashMap<String,Integer> tokenToDf = new HashMap<String,Integer>();
-
-        for (Map.Entry<String,PostingsList> entry : index.entrySet()) {
-            String token = entry.getKey();
-            tokenToDf.put(token, getPostings(token).size());
+        if(!index.isEmpty()){
+            documents.computeEuclideanLengths(index.values());
+        }else if(header != null){
+            // the postings are only on disk (the index was loaded, or
+            // written out while indexing), so read them from there
+            computeEuclideanLengthsFromDisk();
         }
 
-        for(Integer docID : docWords.keySet()){
-            double euclidianLength = 0;
-            for(String token : docWords.get(docID).keySet()){
-                double tf = docWords.get(docID).get(token);
-                double idf = Math.log(N / tokenToDf.get(token));
+        writeEuclideanIndex(filename);
+    }
 
-                euclidianLength += Math.pow(tf * idf, 2);
+    /**
+     *  Computes the euclidean lengths from the dictionary and data files.
+     *
+     *  The df of each term is in its dictionary slot, so the table is
+     *  read slot by slot without looking up any tokens, and each term's
+     *  postings are read once. The table is split into one range of slots
+     *  per processor, and the ranges are done at the same time.
+     */
+    void computeEuclideanLengthsFromDisk(){
+        int parts = Runtime.getRuntime().availableProcessors();
+        int N = documents.size();
+        long tableSize = header.tableSize;
+        documents.computeEuclideanLengths(parts, (sums, part) -> {
+            long first = tableSize * part / parts;
+            long end = tableSize * (part + 1) / parts;
+            byte[] read = new byte[1024 * ENTRYSIZE];
+            ByteBuffer slots = ByteBuffer.wrap(read);
+            try {
+                for(long slot = first; slot < end; slot += 1024){
+                    int n = (int) Math.min(1024, end - slot);
+                    readSlots(dictionaryFile, HEADERSIZE + slot * ENTRYSIZE, read, 0, n * ENTRYSIZE);
+                    for(int k = 0; k < n; k++){
+                        int off = k * ENTRYSIZE;
+                        if(read[off] == 0){
+                            continue;
+                        }
+                        long dataPtr = slots.getLong(off + 1);
+                        int size = slots.getInt(off + 9);
+                        int df = slots.getInt(off + 21);
+                        byte[] data = readData(dataPtr, size);
+                        DocumentStore.addSquaredWeights(sums, PostingsCodec.decode(data, 0, size), Math.log(N / df));
+                    }
+                }
+            } catch ( IOException e ) {
+                e.printStackTrace();
             }
-            euclidianLengths.put(docID, Math.sqrt(euclidianLength));
-        }
-
-        writeEuclideanIndex(filename);
+        });
     }
 
     public void writeEuclideanIndex(String filename){
         System.out.println("Writing euclidean index...");
         try {
             FileOutputStream fout = new FileOutputStream( filename );
-            for ( Map.Entry<Integer,Double> entry : euclidianLengths.entrySet() ) {
-                Integer key = entry.getKey();
-                String euclidianIndexEntry = key + " " + entry.getValue() + "\n";
+            for ( int docID = 0; docID < documents.capacity(); docID++ ) {
+                if ( !documents.contains( docID )) {
+                    continue;
+                }
+                String euclidianIndexEntry = docID + " " + documents.euclideanLength( docID ) + "\n";
                 fout.write( euclidianIndexEntry.getBytes() );
             }
             fout.close();
@@ -0,0 +1,186 @@
+package ir;
+
+import java.io.ByteArrayOutputStream;
+import java.util.StringTokenizer;
+
+/**
+ *  Encodes and decodes postings lists for the data file of a
+ *  PersistentHashedIndex.
+ *
+ *  Every record starts with a format tag so that records written with
+ *  different formats can live side by side. The original text format
+ *  ("docID:off,off;...") has no tag, but always starts with a digit, so
+ *  it can be recognized by its first byte.
+ */
+public class PostingsCodec {
+
+    /** Postings written as the string from PostingsList.toString(). */
+    public static final int TEXT = 0;
+
+    /**
+     *  Postings written as variable-byte integers: the number of documents,
+     *  then for each document the docID gap, the term frequency and the
+     *  gaps between the positions.
+     */
+    public static final int VBYTE = 1;
+
+    /**
+     *  VBYTE postings preceded by block-max data: the number of documents,
+     *  the block size and then, for each block, the largest term frequency,
+     *  the smallest document length (variable-byte) and the smallest
+     *  euclidean length (a 4-byte float, 0 if not known).
+     */
+    public static final int BLOCKMAX = 2;
+
+
+    /**
+     *  Encodes a postings list in the given format.
+     */
+    public static byte[] encode( PostingsList pl, int format ) {
+        if ( format == TEXT ) {
+            return pl.toString().getBytes();
+        }
+        if ( format != VBYTE && format != BLOCKMAX ) {
+            throw new IllegalArgumentException( "Unknown postings format: " + format );
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write( format );
+        writeVByte( out, pl.size() );
+        if ( format == BLOCKMAX ) {
+            if ( !pl.hasBlockMaxima() ) {
+                pl.computeBlockMaxima();
+            }
+            writeVByte( out, pl.blockSize() );
+            for ( int b = 0; b < pl.blockCount(); b++ ) {
+                writeVByte( out, pl.blockMaxTf(b) );
+                writeVByte( out, pl.blockMinLength(b) );
+                int bits = Float.floatToIntBits( pl.blockMinEuclidean(b) );
+                out.write( bits >>> 24 );
+                out.write( bits >>> 16 );
+                out.write( bits >>> 8 );
+                out.write( bits );
+            }
+        }
+        int lastDocID = 0;
+        for ( int i = 0; i < pl.size(); i++ ) {
+            int docID = pl.docID(i);
+            writeVByte( out, docID - lastDocID );
+            lastDocID = docID;
+            int tf = pl.offsetCount(i);
+            writeVByte( out, tf );
+            int lastOffset = 0;
+            for ( int j = 0; j < tf; j++ ) {
+                int offset = pl.getOffset(i, j);
+                writeVByte( out, offset - lastOffset );
+                lastOffset = offset;
+            }
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     *  Decodes a postings list from <code>len</code> bytes of
+     *  <code>data</code>, starting at <code>off</code>.
+     */
+    public static PostingsList decode( byte[] data, int off, int len ) {
+        if ( len == 0 ) {
+            return new PostingsList();
+        }
+        int tag = data[off];
+        if ( tag >= '0' && tag <= '9' ) {
+            return decodeText( new String( data, off, len ));
+        }
+        if ( tag != VBYTE && tag != BLOCKMAX ) {
+            throw new IllegalArgumentException( "Unknown postings format: " + tag );
+        }
+
+        PostingsList pl = new PostingsList();
+        int[] pos = { off + 1 };
+        int n = readVByte( data, pos );
+        int blockSize = 0;
+        int[] maxTf = null, minLength = null;
+        float[] minEuclidean = null;
+        if ( tag == BLOCKMAX ) {
+            blockSize = readVByte( data, pos );
+            int blocks = (n + blockSize - 1) / blockSize;
+            maxTf = new int[blocks];
+            minLength = new int[blocks];
+            minEuclidean = new float[blocks];
+            for ( int b = 0; b < blocks; b++ ) {
+                maxTf[b] = readVByte( data, pos );
+                minLength[b] = readVByte( data, pos );
+                int p = pos[0];
+                int bits = (data[p] & 0xFF) << 24 | (data[p+1] & 0xFF) << 16 | (data[p+2] & 0xFF) << 8 | (data[p+3] & 0xFF);
+                minEuclidean[b] = Float.intBitsToFloat( bits );
+                pos[0] = p + 4;
+            }
+        }
+        int docID = 0;
+        for ( int i = 0; i < n; i++ ) {
+            docID += readVByte( data, pos );
+            int tf = readVByte( data, pos );
+            int offset = 0;
+            for ( int j = 0; j < tf; j++ ) {
+                offset += readVByte( data, pos );
+                pl.addPosting( docID, offset );
+            }
+        }
+        pl.trimToSize();
+        if ( maxTf != null ) {
+            pl.setBlockMaxima( blockSize, maxTf, minLength, minEuclidean );
+        }
+        return pl;
+    }
+
+
+    /**
+     *  Parses the text format written by PostingsList.toString().
+     */
+    static PostingsList decodeText( String repr ) {
+        PostingsList pl = new PostingsList();
+        StringTokenizer st = new StringTokenizer( repr, ":;" );
+        while ( st.hasMoreTokens() ) {
+            int docID = Integer.parseInt( st.nextToken() );
+            PostingsEntry pe = new PostingsEntry( docID );
+            StringTokenizer st2 = new StringTokenizer( st.nextToken(), "," );
+            while ( st2.hasMoreTokens() ) {
+                pe.addOffset( Integer.parseInt( st2.nextToken() ));
+            }
+            pl.add( pe );
+        }
+        return pl;
+    }
+
+
+    /**
+     *  Writes a non-negative integer, seven bits per byte. The high bit
+     *  is set on every byte except the last one.
+     */
+    static void writeVByte( ByteArrayOutputStream out, int value ) {
+        while ( (value & ~0x7F) != 0 ) {
+            out.write( (value & 0x7F) | 0x80 );
+            value >>>= 7;
+        }
+        out.write( value );
+    }
+
+
+    /**
+     *  Reads an integer written by writeVByte. <code>pos[0]</code> is the
+     *  position to read from, and is advanced past the integer.
+     */
+    static int readVByte( byte[] data, int[] pos ) {
+        int p = pos[0];
+        int b = data[p++];
+        int value = b & 0x7F;
+        int shift = 7;
+        while ( b < 0 ) {
+            b = data[p++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        pos[0] = p;
+        return value;
+    }
+}
@@ -7,20 +7,18 @@
 
 package ir;
 
-import java.util.HashMap;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.StringTokenizer;
+import java.util.Arrays;
 import java.io.Serializable;
 
 public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 
     public int docID;
     public double score = 0;
-    public double pagerank = 0;
     
-    // offset is a list of integers, where each integer is the position of the term in the document
-    public ArrayList offset = new ArrayList<>();
+    // offset holds the positions of the term in the document, in increasing order.
+    // Only the first offsetCount elements are in use; the array grows as needed.
+    private int[] offset = new int[1];
+    private int offsetCount = 0;
 
     /**
      *  PostingsEntries are compared by their score (only relevant
@@ -34,50 +32,69 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
     }
 
 
-    //
-    // YOUR CODE HERE
-    //
+    public PostingsEntry(int docID){
+        this.docID = docID;
+    }
+    
+    /** The number of positions, i.e. the term frequency. */
+    public int offsetCount(){
+        return offsetCount;
+    }
 
-    public void computeScore(double idf, RankingType rankingType, NormalizationType normType, Index index, double prWeight){
-        if(rankingType == RankingType.PAGERANK){
-            this.score = prWeight * pagerank;
+    /** Returns the ith position, counting from the start of the document. */
+    public int getOffset(int i){
+        return offset[i];
+    }
+
+    /**
+     *  Adds a position. Positions normally arrive in increasing order and
+     *  are just appended; anything else is inserted in its sorted place.
+     *  A position that is already present is not added again.
+     */
+    public void addOffset(int pos){
+        if(offsetCount == 0 || pos > offset[offsetCount-1]){
+            ensureOffsetCapacity(offsetCount + 1);
+            offset[offsetCount++] = pos;
             return;
         }
-        
-        int tf = offset.size();                    // Number of occurrences of term in document
-        double tfidf = tf * idf;
-
-        // normalize tfidf
-        if(normType == NormalizationType.NUMBER_OF_WORDS){
-            tfidf = tfidf / index.docLengths.get(docID);
-        }else if(normType == NormalizationType.EUCLIDEAN){
-            tfidf = tfidf / index.euclidianLengths.get(docID);
+        int i = Arrays.binarySearch(offset, 0, offsetCount, pos);
+        if(i >= 0){
+            return;
         }
+        i = -i - 1;
+        ensureOffsetCapacity(offsetCount + 1);
+        System.arraycopy(offset, i, offset, i + 1, offsetCount - i);
+        offset[i] = pos;
+        offsetCount++;
+    }
 
-        if(rankingType == RankingType.TF_IDF){
-            score = tfidf;
-        } else if(rankingType == RankingType.COMBINATION){
-            score = prWeight * pagerank + tfidf;
-        }
+    /** Returns true if the term occurs at the given position (binary search). */
+    public boolean containsOffset(int pos){
+        return Arrays.binarySearch(offset, 0, offsetCount, pos) >= 0;
     }
-    
-    public PostingsEntry(int docID){
-        this.docID = docID;
+
+    /** Makes room for at least <code>capacity</code> positions. */
+    public void ensureOffsetCapacity(int capacity){
+        if(capacity > offset.length){
+            offset = Arrays.copyOf(offset, Math.max(capacity, 2 * offset.length));
+        }
     }
     
     public String toString(){
-        String s = Integer.toString(docID) + ":";
-        s += offset.get(0);
-        for(int i = 1; i < offset.size(); i++){
-            s += "," + offset.get(i);
+        StringBuilder s = new StringBuilder();
+        s.append(docID).append(':');
+        s.append(offset[0]);
+        for(int i = 1; i < offsetCount; i++){
+            s.append(',').append(offset[i]);
         }
-        s += ";";
-        return s;
+        s.append(';');
+        return s.toString();
     }
 
     public void merge(PostingsEntry pe){
-        for(int i = 0; i < pe.offset.size(); i++){
-            offset.add(pe.offset.get(i));
+        ensureOffsetCapacity(offsetCount + pe.offsetCount);
+        for(int i = 0; i < pe.offsetCount; i++){
+            addOffset(pe.offset[i]);
         }
     }
 }
@@ -1,83 +1,474 @@
-/*  
+/*
  *   This file is part of the computer assignment for the
  *   Information Retrieval course at KTH.
- * 
+ *
  *   Johan Boye, 2017
- */  
+ */
 
 package ir;
 
-import java.util.ArrayList;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ *  A postings list, stored column by column in primitive arrays rather
+ *  than as one PostingsEntry object per document.
+ *
+ *  Posting i has the docID docIDs[i], and its positions are
+ *  positions[posStart[i]] up to (but not including) positions[posStart[i+1]].
+ *  Scores are only stored once some posting gets a non-zero score.
+ *
+ *  get(i) returns a PostingsEntry holding a copy of posting i, so changing
+ *  that entry does not change the list. Code that walks the list should
+ *  rather use a Cursor, which reads the arrays directly.
+ */
 public class PostingsList {
-    
-    /** The postings list */
-    public ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
+
+    /** The number of postings per block of block-max data. */
+    public static final int BLOCK_SIZE = 128;
+
+    /** Number of postings in this list. */
+    private int n = 0;
+
+    /** The docID of each posting. */
+    private int[] docIDs = new int[1];
+
+    /** Where the positions of each posting start in the positions array (n+1 elements in use). */
+    private int[] posStart = new int[2];
+
+    /** The positions of all postings, one posting after the other. */
+    private int[] positions = new int[1];
+
+    /** The score of each posting, or null if all scores are 0. */
+    private double[] scores = null;
+
+    /**
+     *  Upper bounds on this term's score, per normalization type, worked
+     *  out by Searcher the first time they are needed. A list doesn't
+     *  change once indexing is done, so the bounds stay valid. Queries
+     *  run concurrently, so the array is never changed once published:
+     *  adding bounds replaces it with a filled-in copy.
+     */
+    volatile double[][] scoreBounds = null;
+
+    /**
+     *  Block-max data: for each block of blockSize postings, the largest
+     *  term frequency, and the smallest document length and euclidean
+     *  length (0 if not known). Null until setBlockMaxima is called.
+     */
+    private int blockSize = BLOCK_SIZE;
+    private int[] blockMaxTf = null;
+    private int[] blockMinLength = null;
+    private float[] blockMinEuclidean = null;
 
 
     /** Number of postings in this list. */
     public int size() {
-        return list.size();
+        return n;
     }
 
-    /** Returns the ith posting. */
+    /** Returns a copy of the ith posting. */
     public PostingsEntry get( int i ) {
-        return list.get( i );
+        if ( i < 0 || i >= n ) {
+            throw new IndexOutOfBoundsException( "Index " + i + " out of bounds for length " + n );
+        }
+        PostingsEntry pe = new PostingsEntry( docIDs[i] );
+        int start = posStart[i], end = posStart[i+1];
+        pe.ensureOffsetCapacity( end - start );
+        for ( int j = start; j < end; j++ ) {
+            pe.addOffset( positions[j] );
+        }
+        pe.score = score( i );
+        return pe;
     }
 
-    public void add(PostingsEntry pe){
-        list.add(pe);
+    /** The docID of the ith posting. */
+    public int docID( int i ) {
+        return docIDs[i];
     }
 
-    public boolean hasEntry(PostingsEntry pe){
-        for(int i = 0; i < list.size(); i++){
-            if(list.get(i).docID == pe.docID) return true;
+    /** The number of positions (the term frequency) of the ith posting. */
+    public int offsetCount( int i ) {
+        return posStart[i+1] - posStart[i];
+    }
+
+    /** The jth position of the ith posting. */
+    public int getOffset( int i, int j ) {
+        return positions[posStart[i] + j];
+    }
+
+    /** Returns true if the term occurs at the given position in the ith posting. */
+    public boolean containsOffset( int i, int pos ) {
+        return Arrays.binarySearch( positions, posStart[i], posStart[i+1], pos ) >= 0;
+    }
+
+    /** The score of the ith posting. */
+    public double score( int i ) {
+        return scores == null ? 0 : scores[i];
+    }
+
+    /** Sets the score of the ith posting. */
+    public void setScore( int i, double score ) {
+        if ( scores == null ) {
+            if ( score == 0 ) {
+                return;
+            }
+            scores = new double[docIDs.length];
+        }
+        scores[i] = score;
+    }
+
+    /** Appends a copy of a posting (docID, positions and score) to the list. */
+    public void add( PostingsEntry pe ) {
+        addDocument( pe.docID );
+        ensurePositionCapacity( posStart[n] + pe.offsetCount() );
+        for ( int j = 0; j < pe.offsetCount(); j++ ) {
+            positions[posStart[n]++] = pe.getOffset(j);
+        }
+        setScore( n-1, pe.score );
+    }
+
+    /**
+     *  Adds one occurrence of the term in a document. Documents must
+     *  come in increasing docID order, and the positions within a
+     *  document in increasing order. A docID lower than the last one
+     *  is an IllegalArgumentException.
+     */
+    public void addPosting( int docID, int offset ) {
+        clearBounds();
+        if ( n == 0 || docIDs[n-1] < docID ) {
+            addDocument( docID );
+        } else if ( docIDs[n-1] > docID ) {
+            throw new IllegalArgumentException( "Posting for docID " + docID + " added after docID " + docIDs[n-1] );
         }
-        return false;
+        ensurePositionCapacity( posStart[n] + 1 );
+        positions[posStart[n]++] = offset;
+    }
+
+    /** Starts a new posting with no positions at the end of the list. */
+    private void addDocument( int docID ) {
+        clearBounds();
+        if ( n == docIDs.length ) {
+            int capacity = 2 * n;
+            docIDs = Arrays.copyOf( docIDs, capacity );
+            posStart = Arrays.copyOf( posStart, capacity + 1 );
+            if ( scores != null ) {
+                scores = Arrays.copyOf( scores, capacity );
+            }
+        }
+        docIDs[n] = docID;
+        n++;
+        posStart[n] = posStart[n-1];
+    }
+
+    /**
+     *  Drops the score bounds and block-max data, which a change makes
+     *  stale. This is called for every position added, so the fields
+     *  (one of them volatile) are only written if something is cached.
+     */
+    private void clearBounds() {
+        if ( scoreBounds == null && blockMaxTf == null ) {
+            return;
+        }
+        scoreBounds = null;
+        blockMaxTf = null;
+        blockMinLength = null;
+        blockMinEuclidean = null;
+    }
+
+    private void ensurePositionCapacity( int capacity ) {
+        if ( capacity > positions.length ) {
+            positions = Arrays.copyOf( positions, Math.max( capacity, 2 * positions.length ));
+        }
+    }
+
+    /** Shrinks the arrays to the size of the list, once nothing more will be added. */
+    public void trimToSize() {
+        docIDs = Arrays.copyOf( docIDs, Math.max( n, 1 ));
+        posStart = Arrays.copyOf( posStart, n + 1 );
+        positions = Arrays.copyOf( positions, Math.max( posStart[n], 1 ));
+        if ( scores != null ) {
+            scores = Arrays.copyOf( scores, Math.max( n, 1 ));
+        }
+    }
+
+    /**
+     *  Works out the block-max data from the postings and the document
+     *  lengths in Index. Lengths that are not known are stored as 0.
+     */
+    public void computeBlockMaxima() {
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] maxTf = new int[blocks];
+        int[] minLength = new int[blocks];
+        float[] minEuclidean = new float[blocks];
+        for ( int b = 0; b < blocks; b++ ) {
+            int end = Math.min( n, (b + 1) * BLOCK_SIZE );
+            int length = Integer.MAX_VALUE;
+            float euclidean = Float.MAX_VALUE;
+            for ( int i = b * BLOCK_SIZE; i < end; i++ ) {
+                maxTf[b] = Math.max( maxTf[b], offsetCount(i) );
+                length = Math.min( length, Index.documents.length( docIDs[i] ));
+                // round down, so the float is never above the real length
+                float f = Math.nextDown( (float) Index.documents.euclideanLength( docIDs[i] ));
+                euclidean = Math.min( euclidean, Math.max( f, 0 ));
+            }
+            minLength[b] = length;
+            minEuclidean[b] = euclidean;
+        }
+        setBlockMaxima( BLOCK_SIZE, maxTf, minLength, minEuclidean );
+    }
+
+    /** Sets the block-max data, e.g. as read from disk. */
+    public void setBlockMaxima( int blockSize, int[] maxTf, int[] minLength, float[] minEuclidean ) {
+        this.blockSize = blockSize;
+        blockMaxTf = maxTf;
+        blockMinLength = minLength;
+        blockMinEuclidean = minEuclidean;
+    }
+
+    /** True if the list has block-max data. */
+    public boolean hasBlockMaxima() {
+        return blockMaxTf != null;
+    }
+
+    /** Number of postings per block. */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** Number of blocks. */
+    public int blockCount() {
+        return (n + blockSize - 1) / blockSize;
+    }
+
+    /** The largest term frequency in block b. */
+    public int blockMaxTf( int b ) {
+        return blockMaxTf[b];
     }
 
+    /** The smallest document length in block b, or 0 if not known. */
+    public int blockMinLength( int b ) {
+        return blockMinLength[b];
+    }
+
+    /** The smallest euclidean document length in block b, or 0 if not known. */
+    public float blockMinEuclidean( int b ) {
+        return blockMinEuclidean[b];
+    }
+
+    /** The docID of the last posting in block b. */
+    public int blockLastDocID( int b ) {
+        return docIDs[Math.min( n, (b + 1) * blockSize ) - 1];
+    }
+
+    public boolean hasEntry(PostingsEntry pe){
+        return indexOf(pe.docID) >= 0;
+    }
+
+    /**
+     *  Returns the posting for a document, or null if the document is not
+     *  in the list. The list must be sorted by docID.
+     */
     public PostingsEntry getFromDocID(int docID){
-        for(int i = 0; i < list.size(); i++){
-            if(list.get(i).docID == docID) return list.get(i);
+        int i = indexOf(docID);
+        return i < 0 ? null : get(i);
+    }
+
+    /**
+     *  Returns the index of the posting for a document, or a negative
+     *  number if the document is not in the list. The list must be
+     *  sorted by docID.
+     */
+    public int indexOf(int docID){
+        int i = Arrays.binarySearch(docIDs, 0, n, docID);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     *  Sorts the postings by decreasing score (the order used for ranked
+     *  retrieval results). Postings with equal scores keep their order.
+     */
+    public void sortByScore(){
+        Integer[] order = new Integer[n];
+        for(int i = 0; i < n; i++){
+            order[i] = i;
         }
-        return null;
+        Arrays.sort(order, (a, b) -> Double.compare(score(b), score(a)));
+
+        PostingsList sorted = new PostingsList();
+        for(int i = 0; i < n; i++){
+            sorted.add(this, order[i]);
+        }
+        n = sorted.n;
+        docIDs = sorted.docIDs;
+        posStart = sorted.posStart;
+        positions = sorted.positions;
+        scores = sorted.scores;
+        clearBounds();
+    }
+
+    /** Appends a copy of posting i of another list. */
+    public void add(PostingsList pl, int i){
+        addDocument(pl.docIDs[i]);
+        int start = pl.posStart[i], len = pl.posStart[i+1] - start;
+        ensurePositionCapacity(posStart[n] + len);
+        System.arraycopy(pl.positions, start, positions, posStart[n], len);
+        posStart[n] += len;
+        setScore(n-1, pl.score(i));
     }
 
     public String toString(){
-        String s = "";
-        for(int i = 0; i < list.size(); i++){
-            s += list.get(i).toString();
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < n; i++){
+            s.append(docIDs[i]).append(':');
+            for(int j = posStart[i]; j < posStart[i+1]; j++){
+                if(j > posStart[i]){
+                    s.append(',');
+                }
+                s.append(positions[j]);
+            }
+            s.append(';');
         }
-        return s;
+        return s.toString();
     }
 
+    /**
+     *  Merges another list, sorted by docID, into this one. Postings for
+     *  the same document are combined into one.
+     */
     public void merge(PostingsList pl){
-        int firstOfFirst = list.get(0).docID;
-        int lastOfFirst = list.get(list.size()-1).docID;
-        int firstOfSecond = pl.list.get(0).docID;
-        int lastOfSecond = pl.list.get(pl.list.size()-1).docID;
-
-        if(firstOfFirst < firstOfSecond){
-            if(list.get(list.size()-1) == pl.list.get(0)){
-                PostingsEntry pe = list.get(list.size()-1);
-                pe.merge(pl.list.get(0));
-                list.set(list.size()-1, pe);
-                list.addAll(pl.list.subList(1, pl.list.size()));
-            } else {
-                list.addAll(pl.list);
+        PostingsList merged = new PostingsList();
+        int i = 0, j = 0;
+        while(i < n || j < pl.n){
+            if(j == pl.n || (i < n && docIDs[i] < pl.docIDs[j])){
+                merged.add(this, i++);
+            }else if(i == n || pl.docIDs[j] < docIDs[i]){
+                merged.add(pl, j++);
+            }else{
+                PostingsEntry pe = get(i++);
+                pe.merge(pl.get(j++));
+                merged.add(pe);
             }
-        } else {
-            if(pl.list.get(pl.list.size()-1) == list.get(0)){
-                PostingsEntry pe = pl.list.get(pl.list.size()-1);
-                pe.merge(list.get(0));
-                pl.list.set(pl.list.size()-1, pe);
-                pl.list.addAll(list.subList(1, list.size()));
-                list = pl.list;
-            } else {
-                list.addAll(pl.list);
+        }
+        n = merged.n;
+        docIDs = merged.docIDs;
+        posStart = merged.posStart;
+        positions = merged.positions;
+        scores = merged.scores;
+        clearBounds();
+    }
+
+    /**
+     *  Appends all postings of another list, whose docIDs must all come
+     *  after the last one in this list (an IllegalArgumentException
+     *  otherwise). The arrays are copied in one go, rather than one
+     *  addPosting call per position.
+     */
+    public void append(PostingsList pl){
+        if(pl.n == 0){
+            return;
+        }
+        if(n > 0 && docIDs[n-1] >= pl.docIDs[0]){
+            throw new IllegalArgumentException("Postings from docID " + pl.docIDs[0] + " appended after docID " + docIDs[n-1]);
+        }
+        clearBounds();
+        if(n + pl.n > docIDs.length){
+            int capacity = Math.max(n + pl.n, 2 * docIDs.length);
+            docIDs = Arrays.copyOf(docIDs, capacity);
+            posStart = Arrays.copyOf(posStart, capacity + 1);
+            if(scores != null){
+                scores = Arrays.copyOf(scores, capacity);
             }
-        }   
+        }
+        int base = posStart[n];
+        int len = pl.posStart[pl.n];
+        ensurePositionCapacity(base + len);
+        System.arraycopy(pl.positions, 0, positions, base, len);
+        System.arraycopy(pl.docIDs, 0, docIDs, n, pl.n);
+        for(int i = 1; i <= pl.n; i++){
+            posStart[n + i] = base + pl.posStart[i];
+        }
+        for(int i = 0; pl.scores != null && i < pl.n; i++){
+            setScore(n + i, pl.scores[i]);
+        }
+        n += pl.n;
     }
-}
 
+
+    /** Returns a cursor positioned at the first posting. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+
+    /**
+     *  Walks through the postings without creating PostingsEntry objects.
+     */
+    public class Cursor {
+
+        /** The index of the current posting. */
+        private int i = 0;
+
+        /** False once the cursor has moved past the last posting. */
+        public boolean valid() {
+            return i < n;
+        }
+
+        /** Moves to the next posting. */
+        public void next() {
+            i++;
+        }
+
+        /**
+         *  Moves forward to the first posting with a docID of at least
+         *  <code>target</code>, and returns false if there is none.
+         *
+         *  The docIDs array serves as its own skip list: the cursor gallops
+         *  ahead 1, 2, 4, ... postings until it passes the target, and then
+         *  binary searches the last step. The cost grows with the log of the
+         *  distance moved rather than with the distance itself.
+         */
+        public boolean advance( int target ) {
+            if ( i >= n || docIDs[i] >= target ) {
+                return i < n;
+            }
+            int lo = i, step = 1;
+            while ( lo + step < n && docIDs[lo + step] < target ) {
+                lo += step;
+                step <<= 1;
+            }
+            int hi = Math.min( lo + step, n );
+            int found = Arrays.binarySearch( docIDs, lo + 1, hi, target );
+            i = found >= 0 ? found : -found - 1;
+            return i < n;
+        }
+
+        /** The list this cursor walks through. */
+        public PostingsList list() {
+            return PostingsList.this;
+        }
+
+        /** The index in the list of the current posting. */
+        public int index() {
+            return i;
+        }
+
+        public int docID() {
+            return docIDs[i];
+        }
+
+        /** The number of positions (the term frequency) of the current posting. */
+        public int offsetCount() {
+            return posStart[i+1] - posStart[i];
+        }
+
+        /** The jth position of the current posting. */
+        public int getOffset( int j ) {
+            return positions[posStart[i] + j];
+        }
+
+        /** Returns true if the term occurs at the given position in the current document. */
+        public boolean containsOffset( int pos ) {
+            return Arrays.binarySearch( positions, posStart[i], posStart[i+1], pos ) >= 0;
+        }
+    }
+}
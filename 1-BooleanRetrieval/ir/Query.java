@@ -41,6 +41,19 @@ public class Query {
 
     public ArrayList<Integer> docsSelected = new ArrayList<Integer>();
 
+    /** The window used by proximity queries that don't give one. */
+    public static final int DEFAULT_PROXIMITY_WINDOW = 5;
+
+    /**
+     *  For proximity queries: the largest allowed distance between the
+     *  first and the last matching word. Terms next to each other are at
+     *  distance 1.
+     */
+    public int proximityWindow = DEFAULT_PROXIMITY_WINDOW;
+
+    /** For proximity queries: true if the terms must occur in query order. */
+    public boolean proximityOrdered = false;
+
     /**  
      *  Relevance feedback constant alpha (= weight of original query terms). 
      *  Should be between 0 and 1.
@@ -64,7 +77,7 @@ public class Query {
     
     
     /**
-     *  Creates a new Query from a string of words
+     *  Creates a new Query from a string of words.
      */
     public Query( String queryString  ) {
         StringTokenizer tok = new StringTokenizer( queryString );
@@ -72,6 +85,27 @@ public class Query {
             queryterm.add( new QueryTerm(tok.nextToken(), 1.0) );
         }
     }
+
+
+    /**
+     *  Creates a new Query of the given type from a string of words.
+     *
+     *  For a proximity query, a last word of the form ~N or /N is not a
+     *  term, but the window: "a b ~5" matches a and b within 5 words of
+     *  each other in any order, and "a b /5" only with a before b. For
+     *  other types of query such a word is an ordinary term.
+     */
+    public Query( String queryString, QueryType queryType ) {
+        this( queryString );
+        if ( queryType == QueryType.PROXIMITY_QUERY && queryterm.size() > 1 ) {
+            String last = queryterm.get( queryterm.size()-1 ).term;
+            if ( last.matches( "[~/][0-9]{1,9}" )) {
+                proximityOrdered = last.charAt(0) == '/';
+                proximityWindow = Integer.parseInt( last.substring(1) );
+                queryterm.remove( queryterm.size()-1 );
+            }
+        }
+    }
     
     /**
      *  Returns the number of terms
@@ -101,6 +135,8 @@ public class Query {
         for ( QueryTerm t : queryterm ) {
             queryCopy.queryterm.add( new QueryTerm(t.term, t.weight) );
         }
+        queryCopy.proximityWindow = proximityWindow;
+        queryCopy.proximityOrdered = proximityOrdered;
         return queryCopy;
     }
     
@@ -129,7 +165,7 @@ public class Query {
             if(docIsRelevant[i]){
                 PostingsEntry pe = results.get(i);
                 // Add the terms of the relevant documents to the query
-                wordCount = getTermsFromDoc(engine.index.docNames.get(pe.docID), wordCount);
+                wordCount = getTermsFromDoc(engine.index.documents.name(pe.docID), wordCount);
 
                 docsSelected.add(pe.docID);
 
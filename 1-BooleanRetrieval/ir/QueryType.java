@@ -10,7 +10,10 @@ package ir;
 /**
  *  The different types of search queries we are considering in
  *  the course. 
+ *
+ *  A PROXIMITY_QUERY matches documents where all the terms occur within
+ *  a window of words; see Query for how the window is given.
  */
 public enum QueryType {
-    INTERSECTION_QUERY, PHRASE_QUERY, RANKED_QUERY 
+    INTERSECTION_QUERY, PHRASE_QUERY, RANKED_QUERY, PROXIMITY_QUERY 
 }
\ No newline at end of file
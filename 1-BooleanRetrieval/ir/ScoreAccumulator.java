@@ -0,0 +1,96 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *  Sums up the scores of the documents matching one ranked query.
+ *
+ *  Each query gets its own accumulator, so scoring never writes to the
+ *  postings lists of the index and several queries can be scored at
+ *  the same time. Scores are kept in a dense array indexed by docID, and
+ *  the docIDs that got a score are listed separately, so that reading
+ *  out the results only looks at those documents.
+ */
+public class ScoreAccumulator {
+
+    /** The score of each document, indexed by docID. */
+    private double[] scores;
+
+    /** True for the documents that have been given a score. */
+    private boolean[] touched;
+
+    /** The documents that have been given a score, in the order they got it. */
+    private int[] docs = new int[16];
+
+    /** Number of documents with a score. */
+    private int size = 0;
+
+
+    /** Creates an accumulator for docIDs from 0 to <code>numDocs</code>-1. */
+    public ScoreAccumulator( int numDocs ) {
+        scores = new double[Math.max( numDocs, 1 )];
+        touched = new boolean[scores.length];
+    }
+
+
+    /** Number of documents with a score. */
+    public int size() {
+        return size;
+    }
+
+
+    /** Adds <code>score</code> to the score of a document. */
+    public void add( int docID, double score ) {
+        if ( docID >= scores.length ) {
+            // docIDs are normally below numDocs, but don't fail if one isn't
+            int capacity = Math.max( docID + 1, 2 * scores.length );
+            scores = Arrays.copyOf( scores, capacity );
+            touched = Arrays.copyOf( touched, capacity );
+        }
+        if ( !touched[docID] ) {
+            touched[docID] = true;
+            if ( size == docs.length ) {
+                docs = Arrays.copyOf( docs, 2 * size );
+            }
+            docs[size++] = docID;
+        }
+        scores[docID] += score;
+    }
+
+
+    /** The i-th document that was given a score, for i from 0 to size()-1. */
+    public int docID( int i ) {
+        return docs[i];
+    }
+
+
+    /** The score of a document, or 0 if it has none. */
+    public double get( int docID ) {
+        return docID < scores.length ? scores[docID] : 0;
+    }
+
+
+    /**
+     *  Returns all scored documents as a postings list, by decreasing
+     *  score. Documents with equal scores come in docID order.
+     */
+    public PostingsList toPostingsList() {
+        return topK( size );
+    }
+
+
+    /**
+     *  Returns the <code>k</code> best documents as a postings list, by
+     *  decreasing score. Documents with equal scores come in docID order.
+     *
+     *  The documents are run through a TopDocs heap, which costs
+     *  O(n log k) for n scored documents instead of sorting all of them.
+     */
+    public PostingsList topK( int k ) {
+        TopDocs top = new TopDocs( Math.min( k, size ));
+        for ( int i = 0; i < size; i++ ) {
+            top.offer( docs[i], scores[docs[i]] );
+        }
+        return top.toPostingsList();
+    }
+}
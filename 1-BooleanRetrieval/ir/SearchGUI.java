@@ -30,6 +30,9 @@ public class SearchGUI extends JFrame {
     /**  The results of a search query. */
     private PostingsList results;
 
+    /**  True if results only holds the best RANKED_RESULTS documents, and more may match. */
+    private boolean resultsCut = false;
+
     /**  The query type (either intersection, phrase, or ranked). */
     QueryType queryType = QueryType.INTERSECTION_QUERY;
 
@@ -42,6 +45,9 @@ public class SearchGUI extends JFrame {
     /**  Max number of results to display. */
     static final int MAX_RESULTS = 10;
 
+    /**  Number of results a ranked query returns, best first (see Searcher.search). */
+    static final int RANKED_RESULTS = 100;
+
     /** Demarkator between file name and file contents in the file contents text area*/
     private static final String MARKER = "----------------------------------------------------";
 
@@ -68,6 +74,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem intersectionItem = new JRadioButtonMenuItem( "Intersection query" );
     JRadioButtonMenuItem phraseItem = new JRadioButtonMenuItem( "Phrase query" );
     JRadioButtonMenuItem rankedItem = new JRadioButtonMenuItem( "Ranked retrieval" );
+    JRadioButtonMenuItem proximityItem = new JRadioButtonMenuItem( "Proximity query" );
     JRadioButtonMenuItem tfidfItem = new JRadioButtonMenuItem( "tf-idf" );
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem( "Combination" );
@@ -109,6 +116,7 @@ public class SearchGUI extends JFrame {
         optionsMenu.add( intersectionItem );
         optionsMenu.add( phraseItem );
         optionsMenu.add( rankedItem );
+        optionsMenu.add( proximityItem );
         rankingMenu.add( tfidfItem );
         rankingMenu.add( pagerankItem );
         rankingMenu.add( combinationItem );
@@ -117,6 +125,7 @@ public class SearchGUI extends JFrame {
         queries.add( intersectionItem );
         queries.add( phraseItem );
         queries.add( rankedItem );
+        queries.add( proximityItem );
         ranking.add( tfidfItem );
         ranking.add( pagerankItem );
         ranking.add( combinationItem );
@@ -156,7 +165,7 @@ public class SearchGUI extends JFrame {
                 displayInfoText( " " );
                 // Turn the search string into a Query
                 String queryString = queryWindow.getText().toLowerCase().trim();
-                query = new Query( queryString );
+                query = new Query( queryString, queryType );
                 // Take relevance feedback from the user into account (assignment 3)
                 // Check which documents the user has marked as relevant.
                 if ( box != null ) {
@@ -171,8 +180,17 @@ public class SearchGUI extends JFrame {
                 // we don't want to search at the same time we're indexing new files
                 // (this might corrupt the index).
                 long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
-                    results = engine.searcher.search( query, queryType, rankingType, normType );
+                engine.indexLock.readLock().lock();
+                try {
+                    if ( queryType == QueryType.RANKED_QUERY ) {
+                        results = engine.searcher.search( query, queryType, rankingType, normType, RANKED_RESULTS );
+                        resultsCut = results != null && results.size() >= RANKED_RESULTS;
+                    } else {
+                        results = engine.searcher.search( query, queryType, rankingType, normType );
+                        resultsCut = false;
+                    }
+                } finally {
+                    engine.indexLock.readLock().unlock();
                 }
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 // Display the first few results + a button to see all results.
@@ -238,6 +256,13 @@ public class SearchGUI extends JFrame {
             };
         rankedItem.addActionListener( setRankedQuery );
 
+        Action setProximityQuery = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                queryType = QueryType.PROXIMITY_QUERY;
+            }
+            };
+        proximityItem.addActionListener( setProximityQuery );
+
         Action setTfidfRanking = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 rankingType = RankingType.TF_IDF;
@@ -298,11 +323,15 @@ public class SearchGUI extends JFrame {
      *  @param elapsedTime Shows how long time it took to compute the results.
      */
     void displayResults( int maxResultsToDisplay, double elapsedTime ) {
-        displayInfoText( String.format( "Found %d matching document(s) in %.3f seconds", results.size(), elapsedTime ));
+        if ( resultsCut ) {
+            displayInfoText( String.format( "Top %d matching document(s), found in %.3f seconds", results.size(), elapsedTime ));
+        } else {
+            displayInfoText( String.format( "Found %d matching document(s) in %.3f seconds", results.size(), elapsedTime ));
+        }
         box = new JCheckBox[maxResultsToDisplay];
         int i;
         for ( i=0; i<results.size() && i<maxResultsToDisplay; i++ ) {
-            String description = i + ". " + displayableFileName( engine.index.docNames.get( results.get(i).docID ));
+            String description = i + ". " + displayableFileName( engine.index.documents.name( results.get(i).docID ));
             if ( queryType == QueryType.RANKED_QUERY ) {
                 description += "   " + String.format( "%.5f", results.get(i).score );
             }
@@ -372,7 +401,7 @@ public class SearchGUI extends JFrame {
             resultWindow.add( result );
         }
         // If there were many results, give the user an option to see all of them.
-        if ( i<results.size() ) {
+        if ( i<results.size() || resultsCut ) {
             JPanel actionButtons = new JPanel();
             actionButtons.setLayout(new BoxLayout(actionButtons, BoxLayout.X_AXIS));
             actionButtons.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -382,7 +411,11 @@ public class SearchGUI extends JFrame {
             actionButtons.add( display10MoreBut );
             Action display10More = new AbstractAction() {
                 public void actionPerformed( ActionEvent e ) {
-                    displayResults( (int)this.getValue("resCurSize") + 10, elapsedTime );
+                    int n = (int)this.getValue("resCurSize") + 10;
+                    if ( n > results.size() && resultsCut ) {
+                        searchAllResults();
+                    }
+                    displayResults( n, elapsedTime );
                 }
             };
             display10More.putValue("resCurSize", i);
@@ -390,11 +423,14 @@ public class SearchGUI extends JFrame {
 
             actionButtons.add(Box.createRigidArea(new Dimension(5,0)));
 
-            JButton displayAllBut = new JButton( "Display all " + results.size() + " results" );
+            JButton displayAllBut = new JButton( resultsCut ? "Display all results" : "Display all " + results.size() + " results" );
             displayAllBut.setFont( resultFont );
             actionButtons.add( displayAllBut );
             Action displayAll = new AbstractAction() {
                 public void actionPerformed( ActionEvent e ) {
+                    if ( resultsCut ) {
+                        searchAllResults();
+                    }
                     displayResults( results.size(), elapsedTime );
                 }
             };
@@ -407,6 +443,21 @@ public class SearchGUI extends JFrame {
     };
 
 
+    /**
+     *  Runs the last ranked query again without a limit on the number of
+     *  results, when the user asks for more than the top RANKED_RESULTS.
+     */
+    private void searchAllResults() {
+        engine.indexLock.readLock().lock();
+        try {
+            results = engine.searcher.search( query, queryType, rankingType, normType );
+        } finally {
+            engine.indexLock.readLock().unlock();
+        }
+        resultsCut = false;
+    }
+
+
     /**
      *  Returns the filename at the end of a path.
      */
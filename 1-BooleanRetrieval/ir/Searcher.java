@@ -12,8 +12,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  *  Searches an index for results of a query.
@@ -29,6 +30,14 @@ public class Searcher {
 
     /** The k-gram index to be searched by this Searcher */
     KGramIndex kgIndex;
+
+    /**
+     *  Impact-ordered lists for top-k TF_IDF queries, or null to use
+     *  MaxScore for them. The quantized impacts are only used to order
+     *  and prune the candidates; the documents kept are scored exactly,
+     *  so the top k is the same as without them.
+     */
+    ImpactIndex impactIndex;
     
     /** Constructor */
     public Searcher( Index index, KGramIndex kgIndex ) {
@@ -60,6 +69,18 @@ public class Searcher {
      *  @return A postings list representing the result of the query.
      */
     public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) { 
+        return search( query, queryType, rankingType, normType, Integer.MAX_VALUE );
+    }
+
+
+    /**
+     *  Searches the index for postings matching the query, for callers
+     *  that only show the first <code>maxResults</code> results. Boolean,
+     *  phrase and proximity queries stop as soon as that many documents
+     *  have been found; ranked queries return the best ones.
+     *  @return A postings list representing the result of the query.
+     */
+    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int maxResults ) { 
         //
         //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
@@ -67,102 +88,71 @@ public class Searcher {
         // System.out.println("Query Size: " + query.size());
         // System.out.println("Query: " + query.toString());
 
-        if(query.size() == 1 && queryType == QueryType.INTERSECTION_QUERY){
-            return index.getPostings(query.queryterm.get(0).term);
-        }else{
-            PostingsList result = new PostingsList();
-            PostingsList pl = index.getPostings(query.queryterm.get(0).term);
-            
-            // Get intersection of all words
-            for(int i = 1; i < query.size(); i++){
-                pl = intersect(pl, index.getPostings(query.queryterm.get(i).term));
-            }
-
-            if(queryType == QueryType.RANKED_QUERY){
-                return RankedSearch(query, queryType, rankingType, normType);
-            } else if(queryType == QueryType.INTERSECTION_QUERY){
-                return pl;
-            } else if(queryType == QueryType.PHRASE_QUERY){
-                PostingsList firstList = index.getPostings(query.queryterm.get(0).term);
-                if(query.queryterm.size() == 1){
-                    // System.out.println(firstList.toString());
-                    return firstList;
-                }else{
-                    boolean match = false;
-                    
-                    ArrayList<PostingsList> plList = new ArrayList<PostingsList>();
-                    for(int k = 1; k < query.queryterm.size(); k++){
-                        plList.add(index.getPostings(query.queryterm.get(k).term));
-                    }
+        // Fetch the postings of every term once; a persistent index reads
+        // and decodes them from disk on each call.
+        PostingsList[] lists = new PostingsList[query.size()];
+        for(int i = 0; i < query.size(); i++){
+            lists[i] = index.getPostings(query.queryterm.get(i).term);
+        }
 
-                    // Each interesting PostingsEntry (meaning each document)
-                    for(int i = 0; i < pl.size(); i++){
-                        int curDoc = pl.get(i).docID;
-                        // each offset in the current PostingEntry
-                        for(int j = 0; j < pl.get(i).offset.size(); j++){
-                            int curOffset = (int) pl.get(i).offset.get(j);
-                            match = true;
-                            for(int k = 0; k < plList.size(); k++){
-                                PostingsList plNext = plList.get(k);
-                                PostingsEntry peNext = plNext.getFromDocID(curDoc);
-                                if(!peNext.offset.contains(curOffset+1)){
-                                    match = false;
-                                    break;
-                                }
-                                curOffset++;
-                            }
-                            if(match){
-                                result.add(pl.get(i));
-                                break;
-                            }
-                        }
-                    }
-                    return result;
+        if(queryType == QueryType.RANKED_QUERY){
+            return RankedSearch(query, lists, rankingType, normType, maxResults);
+        }
+        if(query.size() == 1){
+            return lists[0];
+        }
+
+        if(queryType == QueryType.INTERSECTION_QUERY){
+            return intersect(lists, maxResults);
+        } else if(queryType == QueryType.PHRASE_QUERY){
+            return phraseSearch(lists, maxResults);
+        } else if(queryType == QueryType.PROXIMITY_QUERY){
+            if(query.proximityOrdered){
+                return orderedProximitySearch(lists, query.proximityWindow, maxResults);
+            }
+            // in any order, a repeated term would match itself, so count it once
+            ArrayList<PostingsList> distinct = new ArrayList<PostingsList>();
+            HashSet<String> seen = new HashSet<String>();
+            for(int i = 0; i < query.size(); i++){
+                if(seen.add(query.queryterm.get(i).term)){
+                    distinct.add(lists[i]);
                 }
             }
+            return proximitySearch(distinct.toArray(new PostingsList[0]), query.proximityWindow, maxResults);
         }
         return null;
     }
 
 
-    private PostingsList RankedSearch( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType) {
-        PostingsList result = new PostingsList();
-    
-        for(int i = 0; i < query.queryterm.size(); i++){
-            PostingsList pl = index.getPostings(query.queryterm.get(i).term);
-            PostingsList tmppl = new PostingsList();
-            
-            int N = index.docNames.size();            // Number of documents in collection
-            int df = index.getPostings(query.queryterm.get(i).term).size();    // Number of documents containing term
-            double idf = Math.log(N/df);          // Inverse document frequency
-            
-            for(int j = 0; j < pl.size(); j++){
-                PostingsEntry pe = pl.get(j);
-                pe.computeScore(idf, rankingType, normType, index, prWeight);
-                pe.score = pe.score * query.queryterm.get(i).weight;
-                tmppl.add(pe);
-            }
-            if(i == 0){
-                result = tmppl;
-            }else{
-                result = union(result, tmppl);
-            }
+    /**
+     *  Scores the documents containing any of the query terms. When only
+     *  the best <code>maxResults</code> documents are wanted, the impact
+     *  index or MaxScore skip most of them. The DCG of the result is
+     *  printed whichever way it was found.
+     */
+    private PostingsList RankedSearch( Query query, PostingsList[] lists, RankingType rankingType, NormalizationType normType, int maxResults) {
+        PostingsList result;
+        if(maxResults < index.documents.size() && impactIndex != null && rankingType == RankingType.TF_IDF && nonNegativeWeights(query)){
+            result = impactSearch(query, lists, normType, maxResults);
+        }else if(maxResults < index.documents.size() && rankingType != RankingType.PAGERANK && nonNegativeWeights(query)){
+            result = maxScoreSearch(query, lists, rankingType, normType, maxResults);
+        }else{
+            result = accumulatorSearch(query, lists, rankingType, normType, maxResults);
         }
 
-        Collections.sort(result.list);
-
         if(printDCG){
             double DCG = 0;
             int i = 0;
             int max = Math.min(50, result.size());
-            for(PostingsEntry pe : result.list){
-                String docName = index.docNames.get(pe.docID);
+            for(int k = 0; k < result.size(); k++){
+                int docID = result.docID(k);
+                String docName = index.documents.name(docID);
                 String[] parts = docName.split("\\\\");
                 docName = parts[parts.length - 1];
 
                 Integer rating = averageRatings.get(docName);
 
-                if(query.docsSelected.contains(pe.docID)){
+                if(query.docsSelected.contains(docID)){
                     continue;
                 }
 
@@ -186,54 +176,667 @@ public class Searcher {
         return result;
     }
 
-    private PostingsList intersect(PostingsList pl1, PostingsList pl2){
-        PostingsList pl = new PostingsList();
-        int i = 0, j = 0;
-        
-        while(i < pl1.size() && j < pl2.size()){
-            if(pl1.get(i).docID == pl2.get(j).docID){
-                pl.add(pl1.get(i));
-                i++; j++;
-            }else if(pl1.get(i).docID < pl2.get(j).docID){
-                i++;
-            }else{
-                j++;
+    /**
+     *  Scores every document containing a query term. The scores are
+     *  summed up in a ScoreAccumulator owned by this query, so the
+     *  postings lists of the index are only read, and only the best
+     *  <code>maxResults</code> documents are sorted.
+     */
+    private PostingsList accumulatorSearch(Query query, PostingsList[] lists, RankingType rankingType, NormalizationType normType, int maxResults){
+        ScoreAccumulator acc = new ScoreAccumulator(index.documents.size());
+    
+        for(int i = 0; i < query.queryterm.size(); i++){
+            PostingsList pl = lists[i];
+            if(pl == null){
+                continue;
+            }
+            double weight = query.queryterm.get(i).weight;
+            
+            int N = index.documents.size();            // Number of documents in collection
+            int df = pl.size();                       // Number of documents containing term
+            double idf = Math.log(N/df);          // Inverse document frequency
+            
+            for(int j = 0; j < pl.size(); j++){
+                int docID = pl.docID(j);
+                acc.add(docID, score(docID, pl.offsetCount(j), idf, rankingType, normType) * weight);
+            }
+        }
+
+        return acc.topK(maxResults);
+    }
+
+    /**
+     *  Returns cursors for the lists, or null if some term has no
+     *  postings (so nothing can match).
+     */
+    private PostingsList.Cursor[] cursors(PostingsList[] lists){
+        PostingsList.Cursor[] cursors = new PostingsList.Cursor[lists.length];
+        for(int k = 0; k < lists.length; k++){
+            if(lists[k] == null){
+                return null;
+            }
+            cursors[k] = lists[k].cursor();
+        }
+        return cursors;
+    }
+
+    /**
+     *  Moves the cursors forward until they are all at the same document,
+     *  and returns false if some list runs out first.
+     *
+     *  The cursors must be sorted shortest list first. The first cursor
+     *  proposes a docID and every other cursor is advanced to it; if one
+     *  overshoots, its docID becomes the next proposal. Long lists are
+     *  thus skipped through rather than walked.
+     */
+    private boolean align(PostingsList.Cursor[] bySize){
+        while(bySize[0].valid()){
+            int docID = bySize[0].docID();
+            int k = 1;
+            while(k < bySize.length){
+                if(!bySize[k].advance(docID)){
+                    return false;
+                }
+                if(bySize[k].docID() != docID){
+                    break;
+                }
+                k++;
             }
+            if(k == bySize.length){
+                return true;
+            }
+            bySize[0].advance(bySize[k].docID());
         }
-        return pl;
+        return false;
     }
 
-    private PostingsList union(PostingsList pl1, PostingsList pl2){
-        PostingsList pl = new PostingsList();
-        int i = 0, j = 0;
-        
-        while(i < pl1.size() && j < pl2.size()){
-            if(pl1.get(i).docID == pl2.get(j).docID){
-                PostingsEntry pe = pl1.get(i);
-                // pe.merge(pl2.get(j)); // This is not needed
+    /** Returns a copy of the cursors, sorted by the length of their lists. */
+    private PostingsList.Cursor[] bySize(PostingsList.Cursor[] cursors){
+        PostingsList.Cursor[] bySize = cursors.clone();
+        Arrays.sort(bySize, (a, b) -> Integer.compare(a.list().size(), b.list().size()));
+        return bySize;
+    }
 
-                pe.score = pl1.get(i).score + pl2.get(j).score;
-                pl.add(pe);
+    /**
+     *  Returns the postings of lists[0] whose documents are in all the
+     *  lists, at most <code>maxResults</code> of them. No lists are built
+     *  along the way except the result.
+     */
+    private PostingsList intersect(PostingsList[] lists, int maxResults){
+        PostingsList result = new PostingsList();
+        PostingsList.Cursor[] cursors = cursors(lists);
+        if(cursors == null){
+            return result;
+        }
+        // cursors[0] must stay the first term's, so align a sorted copy
+        PostingsList.Cursor[] bySize = bySize(cursors);
+        while(result.size() < maxResults && align(bySize)){
+            result.add(lists[0], cursors[0].index());
+            bySize[0].next();
+        }
+        return result;
+    }
 
-                i++; j++;
-            }else if(pl1.get(i).docID < pl2.get(j).docID){
-                pl.add(pl1.get(i));
-                i++;
-            }else{
-                pl.add(pl2.get(j));
-                j++;
+    /**
+     *  Returns the documents where the terms of lists occur next to each
+     *  other, in order, at most <code>maxResults</code> of them. The
+     *  positions of each result posting are where the phrase starts.
+     *
+     *  The cursors move through the documents together as in intersect().
+     *  In a document containing all the terms, the position lists are
+     *  merged: a phrase starting at p needs term k at p+k, so every list
+     *  is walked forward once, comparing positions relative to p.
+     */
+    private PostingsList phraseSearch(PostingsList[] lists, int maxResults){
+        PostingsList result = new PostingsList();
+        PostingsList.Cursor[] cursors = cursors(lists);
+        if(cursors == null){
+            return result;
+        }
+        PostingsList.Cursor[] bySize = bySize(cursors);
+        int n = cursors.length;
+        int[] ptr = new int[n];
+
+        while(result.size() < maxResults && align(bySize)){
+            int docID = cursors[0].docID();
+            Arrays.fill(ptr, 0);
+            PostingsList.Cursor first = cursors[0];
+
+            candidates:
+            while(ptr[0] < first.offsetCount()){
+                int start = first.getOffset(ptr[0]);
+                for(int k = 1; k < n; k++){
+                    PostingsList.Cursor c = cursors[k];
+                    while(ptr[k] < c.offsetCount() && c.getOffset(ptr[k]) < start + k){
+                        ptr[k]++;
+                    }
+                    if(ptr[k] == c.offsetCount()){
+                        // term k does not occur after start + k, so no later start matches either
+                        break candidates;
+                    }
+                    int found = c.getOffset(ptr[k]);
+                    if(found != start + k){
+                        // the next start that can match term k here is found - k
+                        while(ptr[0] < first.offsetCount() && first.getOffset(ptr[0]) < found - k){
+                            ptr[0]++;
+                        }
+                        continue candidates;
+                    }
+                }
+                result.addPosting(docID, start);
+                ptr[0]++;
+            }
+            bySize[0].next();
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the documents where the terms of lists all occur within
+     *  <code>window</code> words of each other, in any order, at most
+     *  <code>maxResults</code> of them. The positions of each result
+     *  posting are where the matching windows start.
+     *
+     *  In a document containing all the terms, the position lists are
+     *  merged into one increasing stream while remembering the last
+     *  position of each term. Once every term has been seen, the shortest
+     *  window ending at the current position starts at the smallest of
+     *  those last positions.
+     */
+    private PostingsList proximitySearch(PostingsList[] lists, int window, int maxResults){
+        PostingsList result = new PostingsList();
+        PostingsList.Cursor[] cursors = cursors(lists);
+        if(cursors == null){
+            return result;
+        }
+        PostingsList.Cursor[] bySize = bySize(cursors);
+        int n = cursors.length;
+        int[] ptr = new int[n];
+        int[] last = new int[n];
+
+        while(result.size() < maxResults && align(bySize)){
+            int docID = cursors[0].docID();
+            Arrays.fill(ptr, 0);
+            Arrays.fill(last, -1);
+            int seen = 0;
+            int lastStart = -1;
+            while(true){
+                // the term whose next position comes first
+                int next = -1;
+                for(int k = 0; k < n; k++){
+                    if(ptr[k] < cursors[k].offsetCount()
+                       && (next < 0 || cursors[k].getOffset(ptr[k]) < cursors[next].getOffset(ptr[next]))){
+                        next = k;
+                    }
+                }
+                if(next < 0){
+                    break;
+                }
+                int pos = cursors[next].getOffset(ptr[next]++);
+                if(last[next] < 0){
+                    seen++;
+                }
+                last[next] = pos;
+                if(seen == n){
+                    int start = pos;
+                    for(int k = 0; k < n; k++){
+                        start = Math.min(start, last[k]);
+                    }
+                    if(pos - start <= window && start != lastStart){
+                        result.addPosting(docID, start);
+                        lastStart = start;
+                    }
+                }
             }
+            bySize[0].next();
+        }
+        return result;
+    }
+
+    /**
+     *  Like proximitySearch(), but the terms must occur in the order of
+     *  lists. For each position of the first term, every later term takes
+     *  its first position after the previous term's, which gives the
+     *  shortest ordered window starting there.
+     */
+    private PostingsList orderedProximitySearch(PostingsList[] lists, int window, int maxResults){
+        PostingsList result = new PostingsList();
+        PostingsList.Cursor[] cursors = cursors(lists);
+        if(cursors == null){
+            return result;
         }
-        while(i < pl1.size()){
-            pl.add(pl1.get(i));
-            i++;
+        PostingsList.Cursor[] bySize = bySize(cursors);
+        int n = cursors.length;
+        int[] ptr = new int[n];
+
+        while(result.size() < maxResults && align(bySize)){
+            int docID = cursors[0].docID();
+            Arrays.fill(ptr, 0);
+            PostingsList.Cursor first = cursors[0];
+
+            starts:
+            for(ptr[0] = 0; ptr[0] < first.offsetCount(); ptr[0]++){
+                int start = first.getOffset(ptr[0]);
+                int pos = start;
+                for(int k = 1; k < n; k++){
+                    PostingsList.Cursor c = cursors[k];
+                    // positions only move forward as the start does
+                    while(ptr[k] < c.offsetCount() && c.getOffset(ptr[k]) <= pos){
+                        ptr[k]++;
+                    }
+                    if(ptr[k] == c.offsetCount()){
+                        break starts;
+                    }
+                    pos = c.getOffset(ptr[k]);
+                    if(pos - start > window){
+                        continue starts;
+                    }
+                }
+                result.addPosting(docID, start);
+            }
+            bySize[0].next();
         }
-        while(j < pl2.size()){
-            pl.add(pl2.get(j));
-            j++;
+        return result;
+    }
+
+    /** Relative margin for comparing score sums added up in different orders. */
+    private static final double SCORE_SLACK = 1e-9;
+
+    /**
+     *  Returns the best <code>maxResults</code> documents, scored as in
+     *  RankedSearch but document by document with MaxScore pruning.
+     *
+     *  Each term has an upper bound on what it can add to a score. The
+     *  terms are sorted by bound, and once the k-th best score so far
+     *  beats the sum of the smallest bounds, those terms become
+     *  non-essential: a document that only contains them cannot make the
+     *  top k, so the candidates are taken from the other terms only, and
+     *  the non-essential lists are just skipped ahead to each candidate.
+     *  A candidate is dropped as soon as its score so far plus the bounds
+     *  of the terms left cannot beat the k-th best score.
+     *
+     *  If the lists have block-max data, the bounds of the blocks the
+     *  essential cursors are in are checked first. When even those can't
+     *  beat the k-th best score, every document up to the end of the
+     *  first of those blocks is skipped without being scored.
+     *
+     *  The score of a document that gets through is summed in query term
+     *  order, so it comes out exactly as in RankedSearch.
+     */
+    private PostingsList maxScoreSearch(Query query, PostingsList[] lists, RankingType rankingType, NormalizationType normType, int maxResults){
+        int N = index.documents.size();
+        int n = lists.length;
+        double[] idf = new double[n];
+        double[] weight = new double[n];
+        double[] bound = new double[n];
+        double[] prPart = new double[n];
+        boolean blocks = true;
+        PostingsList.Cursor[] cursors = new PostingsList.Cursor[n];
+        Integer[] order = new Integer[n];
+        int m = 0;
+        for(int i = 0; i < n; i++){
+            PostingsList pl = lists[i];
+            if(pl == null || pl.size() == 0){
+                continue;
+            }
+            idf[i] = Math.log(N/pl.size());
+            weight[i] = query.queryterm.get(i).weight;
+            double[] b = scoreBounds(pl, normType);
+            prPart[i] = rankingType == RankingType.COMBINATION ? prWeight * b[1] : 0;
+            bound[i] = weight[i] * (idf[i] * b[0] + prPart[i]);
+            blocks &= pl.hasBlockMaxima();
+            cursors[i] = pl.cursor();
+            order[m++] = i;
+        }
+        Arrays.sort(order, 0, m, (a, b) -> Double.compare(bound[a], bound[b]));
+        // below[j] is the sum of the bounds of the j terms with the smallest bounds
+        double[] below = new double[m + 1];
+        for(int j = 0; j < m; j++){
+            below[j+1] = below[j] + bound[order[j]];
+        }
+
+        TopDocs top = new TopDocs(maxResults);
+        double[] contrib = new double[n];
+        boolean[] found = new boolean[n];
+        int firstEssential = 0;
+        double threshold = Double.NEGATIVE_INFINITY;
+
+        while(true){
+            int docID = Integer.MAX_VALUE;
+            for(int j = firstEssential; j < m; j++){
+                PostingsList.Cursor c = cursors[order[j]];
+                if(c.valid() && c.docID() < docID){
+                    docID = c.docID();
+                }
+            }
+            if(docID == Integer.MAX_VALUE){
+                break;
+            }
+
+            if(blocks){
+                double blockSum = below[firstEssential];
+                int last = Integer.MAX_VALUE;
+                for(int j = firstEssential; j < m; j++){
+                    int i = order[j];
+                    PostingsList.Cursor c = cursors[i];
+                    if(c.valid()){
+                        PostingsList pl = c.list();
+                        int block = c.index() / pl.blockSize();
+                        blockSum += blockBound(pl, block, idf[i], weight[i], prPart[i], normType);
+                        last = Math.min(last, pl.blockLastDocID(block));
+                    }
+                }
+                if(cannotBeat(blockSum, threshold)){
+                    for(int j = firstEssential; j < m; j++){
+                        cursors[order[j]].advance(last + 1);
+                    }
+                    continue;
+                }
+            }
+
+            Arrays.fill(found, false);
+            double partial = 0;
+            for(int j = firstEssential; j < m; j++){
+                int i = order[j];
+                PostingsList.Cursor c = cursors[i];
+                if(c.valid() && c.docID() == docID){
+                    contrib[i] = score(docID, c.offsetCount(), idf[i], rankingType, normType) * weight[i];
+                    found[i] = true;
+                    partial += contrib[i];
+                    c.next();
+                }
+            }
+            boolean pruned = false;
+            for(int j = firstEssential - 1; j >= 0; j--){
+                if(cannotBeat(partial + below[j+1], threshold)){
+                    pruned = true;
+                    break;
+                }
+                int i = order[j];
+                PostingsList.Cursor c = cursors[i];
+                if(c.advance(docID) && c.docID() == docID){
+                    contrib[i] = score(docID, c.offsetCount(), idf[i], rankingType, normType) * weight[i];
+                    found[i] = true;
+                    partial += contrib[i];
+                }
+            }
+            if(pruned){
+                continue;
+            }
+
+            double total = 0;
+            for(int i = 0; i < n; i++){
+                if(found[i]){
+                    total += contrib[i];
+                }
+            }
+            top.offer(docID, total);
+            if(top.isFull()){
+                threshold = top.threshold();
+                while(firstEssential < m && cannotBeat(below[firstEssential+1], threshold)){
+                    firstEssential++;
+                }
+            }
+        }
+        return top.toPostingsList();
+    }
+
+    /**
+     *  Returns the best <code>maxResults</code> documents for a TF_IDF
+     *  query, scoring impact by impact.
+     *
+     *  The segments of all the terms' impact lists are taken in order of
+     *  decreasing weighted impact, and each adds its impact to the
+     *  approximate score of its documents. An impact is an upper bound
+     *  on the exact score it stands for, so a document's approximate
+     *  score plus the impacts left bounds its exact score. Once the
+     *  impacts left add up to less than the k-th best exact score of the
+     *  documents found so far, a document not seen yet can't get into
+     *  the top k, and the rest of the lists is never read. The documents
+     *  whose bound still reaches that score are then scored exactly, in
+     *  query term order as in RankedSearch, and the best k kept.
+     */
+    private PostingsList impactSearch(Query query, PostingsList[] lists, NormalizationType normType, int maxResults){
+        int N = index.documents.size();
+        int n = lists.length;
+        ImpactIndex.ImpactList[] impacts = new ImpactIndex.ImpactList[n];
+        double[] weight = new double[n];
+        int segments = 0;
+        for(int i = 0; i < n; i++){
+            if(lists[i] == null || lists[i].size() == 0){
+                continue;
+            }
+            impacts[i] = impactIndex.getImpacts(query.queryterm.get(i).term, lists[i], normType);
+            weight[i] = query.queryterm.get(i).weight;
+            segments += impacts[i].segments();
+        }
+
+        // all segments as (term, segment), by decreasing weighted impact;
+        // the segments of each term stay in their order
+        Long[] sorted = new Long[segments];
+        int m = 0;
+        for(int i = 0; i < n; i++){
+            for(int s = 0; impacts[i] != null && s < impacts[i].segments(); s++){
+                sorted[m++] = (long) i << 32 | s;
+            }
+        }
+        Arrays.sort(sorted, (a, b) -> Double.compare(segmentValue(impacts, weight, b), segmentValue(impacts, weight, a)));
+
+        // left[i] is the weighted impact of term i's next segment
+        double[] left = new double[n];
+        double remaining = 0;
+        for(int i = 0; i < n; i++){
+            left[i] = impacts[i] == null ? 0 : segmentValue(impacts, weight, (long) i << 32);
+            remaining += left[i];
+        }
+
+        ScoreAccumulator acc = new ScoreAccumulator(N);
+        double best = 0;
+        long work = 0;
+        for(int j = 0; j < segments; j++){
+            int i = (int) (sorted[j] >>> 32);
+            int s = (int) (long) sorted[j];
+            ImpactIndex.ImpactList il = impacts[i];
+            double v = segmentValue(impacts, weight, sorted[j]);
+            for(int p = il.segStart[s]; p < il.segStart[s+1]; p++){
+                acc.add(il.docIDs[p], v);
+                best = Math.max(best, acc.get(il.docIDs[p]));
+            }
+            work += il.segStart[s+1] - il.segStart[s];
+            left[i] = s + 1 < il.segments() ? segmentValue(impacts, weight, (long) i << 32 | (s + 1)) : 0;
+
+            remaining = 0;
+            for(int k = 0; k < n; k++){
+                remaining += left[k];
+            }
+            // checking costs a pass over the scored documents, so only
+            // do it once the work since the last check pays for it
+            if(remaining < best && work >= acc.size()){
+                work = 0;
+                double threshold = exactTopK(acc.topK(maxResults), lists, weight, normType, maxResults).threshold();
+                if(cannotBeat(remaining, threshold)){
+                    break;
+                }
+            }
+        }
+
+        // a document's exact score is at most its approximate score plus
+        // the impacts left, so only those reaching the k-th exact score
+        // of the approximate top k need scoring
+        double threshold = exactTopK(acc.topK(maxResults), lists, weight, normType, maxResults).threshold();
+        TopDocs top = new TopDocs(maxResults);
+        for(int c = 0; c < acc.size(); c++){
+            int docID = acc.docID(c);
+            if(!cannotBeat(acc.get(docID) + remaining, threshold)){
+                top.offer(docID, exactScore(docID, lists, weight, normType));
+            }
+        }
+        return top.toPostingsList();
+    }
+
+    /** Scores the documents in <code>candidates</code> exactly, keeping the best k. */
+    private TopDocs exactTopK(PostingsList candidates, PostingsList[] lists, double[] weight, NormalizationType normType, int k){
+        TopDocs top = new TopDocs(k);
+        for(int c = 0; c < candidates.size(); c++){
+            int docID = candidates.docID(c);
+            top.offer(docID, exactScore(docID, lists, weight, normType));
+        }
+        return top;
+    }
+
+    /** The TF_IDF score of a document, summed in query term order as in RankedSearch. */
+    private double exactScore(int docID, PostingsList[] lists, double[] weight, NormalizationType normType){
+        int N = index.documents.size();
+        double total = 0;
+        for(int i = 0; i < lists.length; i++){
+            int p = lists[i] == null ? -1 : lists[i].indexOf(docID);
+            if(p >= 0){
+                double idf = Math.log(N/lists[i].size());
+                total += score(docID, lists[i].offsetCount(p), idf, RankingType.TF_IDF, normType) * weight[i];
+            }
+        }
+        return total;
+    }
+
+    /** The weighted impact of a segment, given as term << 32 | segment. */
+    private static double segmentValue(ImpactIndex.ImpactList[] impacts, double[] weight, long segment){
+        int i = (int) (segment >>> 32);
+        int s = (int) segment;
+        return weight[i] * ImpactIndex.dequantize(impacts[i].impacts[s]);
+    }
+
+    /**
+     *  True if a score of at most <code>bound</code> surely ranks below
+     *  <code>threshold</code>, leaving a margin for rounding.
+     */
+    private static boolean cannotBeat(double bound, double threshold){
+        return bound < threshold - SCORE_SLACK * Math.max(1, Math.abs(threshold));
+    }
+
+    private static boolean nonNegativeWeights(Query query){
+        for(int i = 0; i < query.size(); i++){
+            if(query.queryterm.get(i).weight < 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  An upper bound on what a term can add to the score of a document
+     *  in block b of its postings list pl.
+     */
+    private double blockBound(PostingsList pl, int b, double idf, double weight, double prPart, NormalizationType normType){
+        double minNorm = blockMinNorm(pl, b, normType);
+        if(minNorm <= 0){
+            // length not known, so no bound
+            return Double.POSITIVE_INFINITY;
+        }
+        return weight * (idf * pl.blockMaxTf(b) / minNorm + prPart);
+    }
+
+    /** The smallest normalization length in block b, or 0 if not known. */
+    private static double blockMinNorm(PostingsList pl, int b, NormalizationType normType){
+        if(normType == NormalizationType.NUMBER_OF_WORDS){
+            return pl.blockMinLength(b);
+        }else if(normType == NormalizationType.EUCLIDEAN){
+            return pl.blockMinEuclidean(b);
+        }
+        return 1;
+    }
+
+    /**
+     *  The largest pagerank of any document, or -1 until it is needed.
+     *  Volatile, since queries run concurrently.
+     */
+    private volatile double maxPageRank = -1;
+
+    private double maxPageRank(){
+        if(maxPageRank < 0){
+            double max = 0;
+            for(int docID = 0; docID < index.documents.capacity(); docID++){
+                if(index.documents.contains(docID)){
+                    max = Math.max(max, index.getPageRank(docID));
+                }
+            }
+            maxPageRank = max;
+        }
+        return maxPageRank;
+    }
+
+    /**
+     *  Returns { the largest normalized tf, the largest pagerank } over
+     *  the postings of pl, which bound the term's tf-idf and pagerank
+     *  parts of a score. They are worked out once per list and kept on it.
+     *
+     *  With block-max data the bounds come from the blocks (and the
+     *  largest pagerank overall) without reading the postings; a
+     *  persistent index decodes its lists anew for every query, so this
+     *  saves a pass over every list.
+     *
+     *  Other queries may read the cache at the same time, so new bounds
+     *  go into a copy, which is then published through the volatile
+     *  field. Two queries racing may both work out the same bounds.
+     */
+    private double[] scoreBounds(PostingsList pl, NormalizationType normType){
+        double[][] cache = pl.scoreBounds;
+        double[] b = cache == null ? null : cache[normType.ordinal()];
+        if(b != null){
+            return b;
+        }
+        if(pl.hasBlockMaxima()){
+            b = new double[]{ 0, maxPageRank() };
+            for(int k = 0; k < pl.blockCount(); k++){
+                double minNorm = blockMinNorm(pl, k, normType);
+                if(minNorm <= 0){
+                    b = null;
+                    break;
+                }
+                b[0] = Math.max(b[0], pl.blockMaxTf(k) / minNorm);
+            }
+        }
+        if(b == null){
+            b = new double[2];
+            for(int i = 0; i < pl.size(); i++){
+                int docID = pl.docID(i);
+                b[0] = Math.max(b[0], pl.offsetCount(i) / norm(docID, normType));
+                b[1] = Math.max(b[1], index.getPageRank(docID));
+            }
+        }
+        double[][] next = cache == null ? new double[NormalizationType.values().length][] : cache.clone();
+        next[normType.ordinal()] = b;
+        pl.scoreBounds = next;
+        return b;
+    }
+
+    /** The length a term frequency is divided by when normalizing. */
+    private double norm(int docID, NormalizationType normType){
+        if(normType == NormalizationType.NUMBER_OF_WORDS){
+            return index.documents.length(docID);
+        }else if(normType == NormalizationType.EUCLIDEAN){
+            return index.documents.euclideanLength(docID);
+        }
+        return 1;
+    }
+
+    /**
+     *  The score of one query term in one document, where the term
+     *  occurs <code>tf</code> times.
+     */
+    private double score(int docID, int tf, double idf, RankingType rankingType, NormalizationType normType){
+        if(rankingType == RankingType.PAGERANK){
+            return prWeight * index.getPageRank(docID);
+        }
+
+        double tfidf = tf * idf;
+
+        // normalize tfidf
+        tfidf = tfidf / norm(docID, normType);
+
+        if(rankingType == RankingType.COMBINATION){
+            return prWeight * index.getPageRank(docID) + tfidf;
         }
-        return pl;
-        
+        return tfidf;
     }
 
 }
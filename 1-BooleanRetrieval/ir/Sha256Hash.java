@@ -0,0 +1,29 @@
+package ir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *  The first 64 bits of the SHA-256 digest of the UTF-8 encoded token.
+ *  This is much slower than Murmur3Hash, and is kept for dictionaries
+ *  that were written with it.
+ */
+public class Sha256Hash implements DictionaryHash {
+
+    /** MessageDigest objects are not thread-safe, so each thread gets its own. */
+    private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial( () -> {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch ( NoSuchAlgorithmException e ) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException( e );
+        }
+    });
+
+    public long hash( String token ) {
+        MessageDigest md = digest.get();
+        return ByteBuffer.wrap( md.digest( token.getBytes( StandardCharsets.UTF_8 ))).getLong();
+    }
+}
@@ -0,0 +1,119 @@
+package ir;
+
+/**
+ *  Hands out one String per distinct token, so that a token seen before
+ *  is looked up from the tokenizer's buffer without making a new String.
+ *
+ *  Most tokens in a text are repeats, so the indexer only allocates a
+ *  String for each new word, and the index gets the same String object
+ *  (with its hash code already computed) for every occurrence. The
+ *  strings are kept in an open-addressing hash table, keyed by the
+ *  same hash as String.hashCode(). A cache must only be used by one
+ *  thread at a time.
+ */
+public class TokenCache {
+
+    /**
+     *  The most strings kept. A cache that reaches this many is emptied,
+     *  so a vocabulary full of rare words (numbers, say) can't make it
+     *  grow without end; words seen again just get new Strings.
+     */
+    public static final int MAX_SIZE = 1 << 20;
+
+    /** The number of slots in an empty table. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The strings, or null for a free slot. */
+    private String[] table = new String[INITIAL_CAPACITY];
+
+    /** The hash code of the string in the same slot. */
+    private int[] hashes = new int[table.length];
+
+    /** Number of strings in the table. */
+    private int size = 0;
+
+
+    /** Number of distinct tokens seen. */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     *  Returns the String with the characters <code>buf[start]</code> to
+     *  <code>buf[start+length-1]</code>, the same object every time until
+     *  the cache is emptied.
+     */
+    public String get( char[] buf, int start, int length ) {
+        int h = 0;
+        for ( int i = start; i < start + length; i++ ) {
+            h = 31 * h + buf[i];
+        }
+        int mask = table.length - 1;
+        int slot = spread( h ) & mask;
+        while ( table[slot] != null ) {
+            if ( hashes[slot] == h && matches( table[slot], buf, start, length )) {
+                return table[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ( size == MAX_SIZE ) {
+            clear();
+            slot = spread( h ) & (table.length - 1);
+        }
+        String s = new String( buf, start, length );
+        table[slot] = s;
+        hashes[slot] = h;
+        if ( ++size > table.length / 2 ) {
+            grow();
+        }
+        return s;
+    }
+
+
+    /** Forgets all strings, and goes back to a small table. */
+    public void clear() {
+        table = new String[INITIAL_CAPACITY];
+        hashes = new int[table.length];
+        size = 0;
+    }
+
+
+    private static boolean matches( String s, char[] buf, int start, int length ) {
+        if ( s.length() != length ) {
+            return false;
+        }
+        for ( int i = 0; i < length; i++ ) {
+            if ( s.charAt( i ) != buf[start + i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** Mixes the high bits of a hash into the low ones, which pick the slot. */
+    private static int spread( int h ) {
+        return h ^ (h >>> 16);
+    }
+
+
+    /** Doubles the table. */
+    private void grow() {
+        String[] oldTable = table;
+        int[] oldHashes = hashes;
+        table = new String[2 * oldTable.length];
+        hashes = new int[table.length];
+        int mask = table.length - 1;
+        for ( int i = 0; i < oldTable.length; i++ ) {
+            if ( oldTable[i] != null ) {
+                int slot = spread( oldHashes[i] ) & mask;
+                while ( table[slot] != null ) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = oldTable[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+}
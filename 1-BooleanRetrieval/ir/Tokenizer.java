@@ -17,6 +17,8 @@ import java.util.ArrayList;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.regex.PatternSyntaxException;
+import java.nio.CharBuffer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.System;
 
 
@@ -65,8 +67,22 @@ public class Tokenizer {
     /** Starting position of current token, or -1 if we're between tokens. */
     int token_start = -1;
 
-    /** The next tokens to emit. */
-    ArrayList<String> token_queue = new ArrayList<String>();
+    /**
+     *  The next tokens to emit, as a ring buffer of slices of @code{buf}:
+     *  token i starts at @code{queue_start[i]} and is @code{queue_length[i]}
+     *  characters long. The buffer is only refilled once the queue is
+     *  empty, so the slices stay valid while they are queued.
+     */
+    int[] queue_start = new int[16];
+    int[] queue_length = new int[16];
+
+    /** Position of the first queued token in the ring, and the number of queued tokens. */
+    int queue_head = 0;
+    int queue_size = 0;
+
+    /** The token taken by the last call to @code{advance}, as a slice of @code{buf}. */
+    int current_start = 0;
+    int current_length = 0;
 
     /** @code{true} if we've started reading tokens. */
     boolean started_reading = false;
@@ -74,6 +90,18 @@ public class Tokenizer {
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     ArrayList<Pattern> patterns = null;
 
+    /** The patterns, as read and compiled once for all tokenizers using the file. */
+    PatternSet pattern_set = null;
+
+    /** A matcher for the combined pattern, or null if the patterns could not be combined. */
+    Matcher combined_matcher = null;
+
+    /** One matcher per pattern, made when first needed. */
+    Matcher[] matchers = null;
+
+    /** The candidate token the matchers are run on, a view of part of @code{buf}. */
+    CharBuffer candidate = null;
+
     /** Special characters (with diacritics) can be translated into these characters. */
     public static final char[] SPECIAL_CHAR_MAPPING = {
         'A', 'A', 'A', 'A', 'A', 'A', 'E', 'C', 'E', 'E', 'E', 'E', 'I', 'I', 'I', 'I', 'D', 'N', 'O', 'O', 'O', 'O', 'O', '*', 'O', 'U', 'U', 'U', 'U', 'Y', 'T', 'S', 'a', 'a', 'a', 'a', 'a', 'a', 'e', 'c', 'e', 'e', 'e', 'e', 'i', 'i', 'i', 'i', 'd', 'n', 'o', 'o', 'o', 'o', 'o', '/', 'o', 'u', 'u', 'u', 'u', 'y', 't', 'y', 'A', 'a', 'A', 'a', 'A', 'a', 'C', 'c', 'C', 'c', 'C', 'c', 'C', 'c', 'D', 'd', 'E', 'e', 'E', 'e', 'E', 'e', 'E', 'e', 'E', 'e', 'G', 'g', 'G', 'g', 'G', 'g', 'G', 'g', 'H', 'h', 'H', 'h', 'I', 'i', 'I', 'i', 'I', 'i', 'I', 'i', 'I', 'i', 'J', 'j', 'J', 'j', 'K', 'k', 'k', 'L', 'l', 'L', 'l', 'L', 'l', 'L', 'l', 'L', 'l', 'N', 'n', 'N', 'n', 'N', 'n', 'n', 'N', 'n', 'O', 'o', 'O', 'o', 'O', 'o', 'O', 'o', 'R', 'r', 'R', 'r', 'R', 'r', 'S', 's', 'S', 's', 'S', 's', 'S', 's', 'T', 't', 'T', 't', 'T', 't', 'U', 'u', 'U', 'u', 'U', 'u', 'U', 'u', 'U', 'u', 'U', 'u', 'W', 'w', 'Y', 'y', 'Y', 'Z', 'z', 'Z', 'z', 'Z', 'z' }; 
@@ -100,7 +128,12 @@ public class Tokenizer {
         this.remove_diacritics = remove_diacritics;
         this.remove_punctuation = remove_punctuation;
         if ( pattern_file != null ) {
-            readPatterns( pattern_file );
+            pattern_set = PATTERN_SETS.computeIfAbsent( pattern_file, PatternSet::read );
+            patterns = pattern_set.patterns;
+            matchers = new Matcher[patterns.size()];
+            if ( pattern_set.combined != null ) {
+                combined_matcher = pattern_set.combined.matcher( "" );
+            }
         }
     }
 
@@ -121,27 +154,126 @@ public class Tokenizer {
     }
 
 
+    /** The pattern files read so far, by file name. */
+    static final ConcurrentHashMap<String,PatternSet> PATTERN_SETS = new ConcurrentHashMap<String,PatternSet>();
+
+
     /**
-     *  Read the patterns that match non-standard words  
+     *  The patterns of a patterns file. Indexing makes a Tokenizer for
+     *  every document, so the file is read and compiled only once, and
+     *  shared by all tokenizers (Patterns can be used by several threads;
+     *  each tokenizer has its own Matchers).
+     *
+     *  The patterns are also joined into one alternation,
+     *  <code>(p1)|(p2)|...</code>, so that a candidate token which matches
+     *  none of them, the usual case, is scanned once instead of once per
+     *  pattern.
      */
-    private void readPatterns( String filename ) {
-        patterns = new ArrayList<Pattern>();
-        String line = null;
-        try {
-            BufferedReader in = new BufferedReader( new FileReader( filename ));
-            while (( line = in.readLine()) != null ) {
-                line = line.trim();
-                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
-                    patterns.add( Pattern.compile( line ));
+    static class PatternSet {
+        final ArrayList<Pattern> patterns;
+
+        /** All patterns as one alternation, or null if they could not be joined. */
+        final Pattern combined;
+
+        /** The group of @code{combined} holding pattern i. */
+        final int[] group;
+
+        PatternSet( ArrayList<Pattern> patterns ) {
+            this.patterns = patterns;
+            this.group = new int[patterns.size()];
+            this.combined = combine();
+        }
+
+        private Pattern combine() {
+            if ( patterns.isEmpty() ) {
+                return null;
+            }
+            StringBuilder regex = new StringBuilder();
+            int groups = 0;
+            for ( int i=0; i<patterns.size(); i++ ) {
+                String p = patterns.get( i ).pattern();
+                if ( BACK_REFERENCE.matcher( p ).find() ) {
+                    // the groups are renumbered in the alternation
+                    return null;
+                }
+                if ( i > 0 ) {
+                    regex.append( '|' );
+                }
+                regex.append( '(' ).append( p ).append( ')' );
+                group[i] = ++groups;
+                groups += patterns.get( i ).matcher( "" ).groupCount();
+            }
+            try {
+                Pattern combined = Pattern.compile( regex.toString() );
+                // a pattern that doesn't survive being put in a group
+                // (like an unterminated \Q) shows in the group count
+                return combined.matcher( "" ).groupCount() == groups ? combined : null;
+            } catch ( PatternSyntaxException e ) {
+                return null;
+            }
+        }
+
+        /**
+         *  Reads the patterns that match non-standard words  
+         */
+        static PatternSet read( String filename ) {
+            ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+            String line = null;
+            try ( BufferedReader in = new BufferedReader( new FileReader( filename ))) {
+                while (( line = in.readLine()) != null ) {
+                    line = line.trim();
+                    if ( !line.startsWith( "//" ) && line.length() > 0 ) {
+                        patterns.add( Pattern.compile( line ));
+                    }
                 }
             }
+            catch ( IOException e ) {
+                System.err.println( "Warning: IOException reading the regular expressions from file" );
+            }
+            catch ( PatternSyntaxException e ) {
+                System.err.println( "ERROR: Malformed regular expression: " + line );
+            }
+            return new PatternSet( patterns );
         }
-        catch ( IOException e ) {
-            System.err.println( "Warning: IOException reading the regular expressions from file" );
+    }
+
+    /** Finds back references (\1, \k&lt;name&gt;) in a regular expression. */
+    private static final Pattern BACK_REFERENCE = Pattern.compile( "(?<!\\\\)(\\\\\\\\)*\\\\([1-9]|k<)" );
+
+
+    /**
+     *  Returns a matcher that has found the non-standard word in
+     *  @code{candidate}, or null if there is none.
+     *
+     *  As before the patterns were combined, the first pattern (in the
+     *  order of the file) that matches anywhere wins. The combined pattern
+     *  finds the leftmost match of any pattern; if it is from pattern k,
+     *  a pattern before k can still match further to the right, so those
+     *  are tried on their own. Non-standard words are rare, so this is
+     *  seldom needed.
+     */
+    private Matcher findNonStandardWord() {
+        int k = matchers.length;
+        if ( combined_matcher != null ) {
+            combined_matcher.reset( candidate );
+            if ( !combined_matcher.find() ) {
+                return null;
+            }
+            k = 0;
+            while ( combined_matcher.start( pattern_set.group[k] ) < 0 ) {
+                k++;
+            }
         }
-        catch ( PatternSyntaxException e ) {
-            System.err.println( "ERROR: Malformed regular expression: " + line );
+        for ( int i=0; i<k; i++ ) {
+            if ( matchers[i] == null ) {
+                matchers[i] = patterns.get( i ).matcher( "" );
+            }
+            matchers[i].reset( candidate );
+            if ( matchers[i].find() ) {
+                return matchers[i];
+            }
         }
+        return combined_matcher;
     }
 
 
@@ -186,7 +318,7 @@ public class Tokenizer {
             readTokens();
             started_reading = true;
         }
-        if ( token_queue.size() == 0 ) 
+        if ( queue_size == 0 ) 
             return readTokens();
         else 
             return true;
@@ -198,15 +330,48 @@ public class Tokenizer {
      *  are no more tokens.
      */
     public String nextToken() throws IOException { 
-        if ( token_queue.size() == 0 ) {
-            if ( readTokens() )
-                return token_queue.remove( 0 );
-            else
-                return null;
+        if ( !advance() ) {
+            return null;
         }
-        else {
-            return token_queue.remove( 0 );
+        return new String( buf, current_start, current_length );
+    }
+
+
+    /**
+     *  Moves on to the next token without making a String of it. The
+     *  token is then the @code{tokenLength()} characters from
+     *  @code{tokenStart()} in @code{tokenBuffer()}, until the next call
+     *  to @code{advance}, @code{nextToken} or @code{hasMoreTokens}.
+     *
+     *  @return @code{false} if there are no more tokens.
+     */
+    public boolean advance() throws IOException {
+        if ( queue_size == 0 && !readTokens() ) {
+            return false;
         }
+        current_start = queue_start[queue_head];
+        current_length = queue_length[queue_head];
+        queue_head = (queue_head + 1) & (queue_start.length - 1);
+        queue_size--;
+        return true;
+    }
+
+
+    /** The characters holding the current token (see @code{advance}). */
+    public char[] tokenBuffer() {
+        return buf;
+    }
+
+
+    /** Where the current token starts in @code{tokenBuffer()}. */
+    public int tokenStart() {
+        return current_start;
+    }
+
+
+    /** The length of the current token. */
+    public int tokenLength() {
+        return current_length;
     }
 
 
@@ -219,7 +384,27 @@ public class Tokenizer {
             started_reading = true;
         }
         boolean token_added_to_queue = false;
-        while ( buf[ptr] != 0 ) {
+        while ( true ) {
+            if ( ptr == BUFFER_LENGTH ) {
+                // The buffer has been read, so refill it. The queue is
+                // empty, so no queued token is overwritten.
+                if ( token_start >= 0 ) {
+                    // We're in the middle of a token. Copy the parts
+                    // of the token we have read already into the 
+                    // beginning of the buffer.
+                    System.arraycopy( buf, token_start, buf, 0, BUFFER_LENGTH-token_start );
+                    refillBuffer( BUFFER_LENGTH-token_start );
+                    ptr = BUFFER_LENGTH-token_start;
+                    token_start = 0;
+                }
+                else {
+                    refillBuffer( 0 );
+                    ptr = 0;
+                }
+            }
+            if ( buf[ptr] == 0 ) {
+                break;
+            }
             if ( token_start < 0 ) {
                 if ( normalize( buf, ptr )) {
                     // A token starts here
@@ -239,22 +424,6 @@ public class Tokenizer {
                     ptr++;
                 }
             }
-            if ( ptr == BUFFER_LENGTH ) {
-                // The buffer has been read, so refill it
-                if ( token_start >= 0 ) {
-                    // We're in the middle of a token. Copy the parts
-                    // of the token we have read already into the 
-                    // beginning of the buffer.
-                    System.arraycopy( buf, token_start, buf, 0, BUFFER_LENGTH-token_start );
-                    refillBuffer( BUFFER_LENGTH-token_start );
-                    ptr = BUFFER_LENGTH-token_start;
-                    token_start = 0;
-                }
-                else {
-                    refillBuffer( 0 );
-                    ptr = 0;
-                }
-            }
             if ( token_added_to_queue ) {
                 return true;
             }
@@ -264,6 +433,30 @@ public class Tokenizer {
     }
 
 
+    /**
+     *  Adds the token @code{buf[start...start+length-1]} to the queue.
+     */
+    private void enqueue( int start, int length ) {
+        if ( queue_size == queue_start.length ) {
+            // Grow the ring, unrolling it to start at 0
+            int[] starts = new int[2 * queue_size];
+            int[] lengths = new int[2 * queue_size];
+            for ( int i=0; i<queue_size; i++ ) {
+                int j = (queue_head + i) & (queue_start.length - 1);
+                starts[i] = queue_start[j];
+                lengths[i] = queue_length[j];
+            }
+            queue_start = starts;
+            queue_length = lengths;
+            queue_head = 0;
+        }
+        int tail = (queue_head + queue_size) & (queue_start.length - 1);
+        queue_start[tail] = start;
+        queue_length[tail] = length;
+        queue_size++;
+    }
+
+
     /**
      *  Adds token to the queue
      */
@@ -271,63 +464,61 @@ public class Tokenizer {
         if ( token_start < 0 ) {
             return false;
         }
-        String s = new String( buf, token_start, ptr-token_start );
-        if ( patterns != null ) {
+        if ( matchers != null ) {
+            if ( candidate == null ) {
+                candidate = CharBuffer.wrap( buf );
+            }
             // Now let's see if the string s matches one of the patterns 
             // for non-standard words
-            for ( Pattern p : patterns ) {
-                Matcher m = p.matcher( s );
-                if ( m.find() ) {
-                    // The string contains a non-standard word. First check the prefix 
-                    // before the matching substring, then add the non-standard word  
-                    // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue( s.substring(0, m.start() ));
-                    token_queue.add( m.group() );
-                    token_start += m.end();
-                    addTokensToQueue();
-                    return true;
-                }
+            candidate.limit( ptr ).position( token_start );
+            Matcher m = findNonStandardWord();
+            if ( m != null ) {
+                // The string contains a non-standard word. First check the prefix 
+                // before the matching substring, then add the non-standard word  
+                // to the token queue, then check the remainder of the string.
+                int start = token_start + m.start();
+                int end = token_start + m.end();
+                addStandardTokensToQueue( token_start, start );
+                enqueue( start, end-start );
+                token_start = end;
+                addTokensToQueue();
+                return true;
             }
         }
         // This string contains only standard words
-        return addStandardTokensToQueue( s );
+        return addStandardTokensToQueue( token_start, ptr );
     }
 
 
     /**
      *  Adds standard tokens (i.e. tokens not matching any regular
-     *  expression) to the queue.
+     *  expression) in @code{buf[start...end-1]} to the queue.
      */
-    private boolean addStandardTokensToQueue( String s ) {
-        // This string s does not match any specific pattern.
+    private boolean addStandardTokensToQueue( int start, int end ) {
+        // This string does not match any specific pattern.
         // Then split it, considering all punctuation symbols
         // to be separators.
         boolean tokens_found = false;
-        StringBuffer smallbuf = new StringBuffer();
-        for ( int i=0; i<s.length(); i++ ) {
-            if ( punctuation( s.charAt( i ))) {
+        int t = start;
+        for ( int i=start; i<end; i++ ) {
+            if ( punctuation( buf[i] )) {
                 // The string before the punctuation sign is a token
                 // unless it is empty
-                String t = smallbuf.toString();
-                if ( t.length()>0 ) {
-                    token_queue.add( t );
-                    smallbuf = new StringBuffer();
+                if ( i>t ) {
+                    enqueue( t, i-t );
                     tokens_found = true;
                 }
+                t = i+1;
                 if ( !remove_punctuation ) {
-                    token_queue.add( "" + s.charAt( i ));
+                    enqueue( i, 1 );
                     tokens_found = true;
                 }
             }
-            else {
-                smallbuf.append( s.charAt( i ));
-            }
         }
         // The string after the last punctuation sign is a token
         // unless it is empty
-        String t = smallbuf.toString();
-        if ( t.length()>0 ) {
-            token_queue.add( t );
+        if ( end>t ) {
+            enqueue( t, end-t );
             tokens_found = true;
         }   
         return tokens_found;
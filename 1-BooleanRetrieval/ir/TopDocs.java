@@ -0,0 +1,145 @@
+package ir;
+
+/**
+ *  Keeps the k best documents offered to it, by score.
+ *
+ *  The documents are held in a min-heap with the worst of the k at the
+ *  root, so offering a document costs O(log k) and the score a new
+ *  document has to beat is always at hand. Documents with equal scores
+ *  rank by increasing docID.
+ */
+public class TopDocs {
+
+    /** The heap of docIDs, worst document first. */
+    private int[] docIDs;
+
+    /** The score of the document in the same heap slot. */
+    private double[] scores;
+
+    /** Number of documents in the heap. */
+    private int size = 0;
+
+
+    /** Creates a TopDocs keeping the <code>k</code> best documents. */
+    public TopDocs( int k ) {
+        docIDs = new int[Math.max( k, 0 )];
+        scores = new double[docIDs.length];
+    }
+
+
+    /** Number of documents kept so far. */
+    public int size() {
+        return size;
+    }
+
+
+    /** True once k documents have been kept. */
+    public boolean isFull() {
+        return size == docIDs.length;
+    }
+
+
+    /**
+     *  The score of the worst document kept, which a new document must
+     *  beat once the heap is full; negative infinity before that.
+     */
+    public double threshold() {
+        return isFull() && size > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+
+    /**
+     *  Offers a document. It is kept if there is room, or if it ranks
+     *  before the worst document kept, which is then dropped.
+     */
+    public void offer( int docID, double score ) {
+        if ( !isFull() ) {
+            docIDs[size] = docID;
+            scores[size] = score;
+            siftUp( size++ );
+        } else if ( size > 0 && better( score, docID, scores[0], docIDs[0] )) {
+            docIDs[0] = docID;
+            scores[0] = score;
+            siftDown( 0, size );
+        }
+    }
+
+
+    /**
+     *  Returns the documents kept as a postings list, by decreasing
+     *  score. The heap is used up in the process.
+     */
+    public PostingsList toPostingsList() {
+        // Taking the worst out of the heap one at a time leaves the
+        // best at the front of the arrays.
+        for ( int end = size - 1; end > 0; end-- ) {
+            swap( 0, end );
+            siftDown( 0, end );
+        }
+        PostingsList result = new PostingsList();
+        for ( int i = 0; i < size; i++ ) {
+            PostingsEntry pe = new PostingsEntry( docIDs[i] );
+            pe.score = scores[i];
+            result.add( pe );
+        }
+        size = 0;
+        return result;
+    }
+
+
+    /** True if document a ranks before document b. */
+    private static boolean better( double scoreA, int a, double scoreB, int b ) {
+        if ( scoreA != scoreB ) {
+            return scoreA > scoreB;
+        }
+        return a < b;
+    }
+
+
+    private boolean better( int i, int j ) {
+        return better( scores[i], docIDs[i], scores[j], docIDs[j] );
+    }
+
+
+    private void swap( int i, int j ) {
+        int doc = docIDs[i];
+        docIDs[i] = docIDs[j];
+        docIDs[j] = doc;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+
+    /** Restores the heap after setting slot i. */
+    private void siftUp( int i ) {
+        while ( i > 0 ) {
+            int parent = (i - 1) / 2;
+            if ( !better( parent, i )) {
+                break;
+            }
+            swap( parent, i );
+            i = parent;
+        }
+    }
+
+
+    /** Restores the heap of the first <code>n</code> slots after setting slot i. */
+    private void siftDown( int i, int n ) {
+        while ( true ) {
+            int worst = i;
+            int left = 2 * i + 1, right = left + 1;
+            if ( left < n && better( worst, left )) {
+                worst = left;
+            }
+            if ( right < n && better( worst, right )) {
+                worst = right;
+            }
+            if ( worst == i ) {
+                return;
+            }
+            swap( worst, i );
+            i = worst;
+        }
+    }
+}